@@ -0,0 +1,56 @@
+package org.gusdb.sitesearch.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.gusdb.sitesearch.service.SolrCalls;
+import org.gusdb.sitesearch.service.solr.ExportPageParser.ExportPage;
+import org.gusdb.sitesearch.service.solr.SolrResponseFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Streaming a page of export results from a SOLR cursor response to TSV rows
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportPageBenchmark {
+
+  @Param({ "10000" })
+  public int numRows;
+
+  @Param({ "json", "smile" })
+  public String format;
+
+  private SolrResponseFormat _responseFormat;
+  private byte[] _body;
+  private CharArrayWriter _out;
+
+  @Setup
+  public void setup() {
+    _responseFormat = SolrResponseFormat.fromWriterType(format);
+    _body = Fixtures.encode(Fixtures.exportPage(numRows), _responseFormat);
+    _out = new CharArrayWriter(numRows * 40);
+  }
+
+  @Benchmark
+  public ExportPage writeExportPage() throws IOException {
+    _out.reset();
+    return SolrCalls.writeExportPage(new ByteArrayInputStream(_body), _responseFormat, _out);
+  }
+}
@@ -0,0 +1,158 @@
+package org.gusdb.sitesearch.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.solr.SolrResponseFormat;
+import org.gusdb.sitesearch.service.solr.SolrSearchResponse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Loads the SOLR response fixtures used by the benchmarks.  Fixtures are
+ * stored as JSON (wt=json); SMILE (wt=smile) versions are converted from them.
+ */
+public class Fixtures {
+
+  public static final String CATEGORIES_METADATA = "categories-metadata.json";
+  public static final String FIELDS_METADATA = "fields-metadata.json";
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final SmileFactory SMILE_FACTORY = new SmileFactory();
+
+  private static final String[] PROJECTS = { "PlasmoDB", "ToxoDB", "CryptoDB", "FungiDB" };
+
+  /**
+   * @param name fixture file name
+   * @return fixture contents (JSON)
+   */
+  public static byte[] load(String name) {
+    try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+      if (in == null) throw new IllegalArgumentException("No fixture named " + name);
+      return in.readAllBytes();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @param json SOLR response in JSON
+   * @param format format to convert to
+   * @return the same response in the passed format
+   */
+  public static byte[] encode(byte[] json, SolrResponseFormat format) {
+    if (format == SolrResponseFormat.JSON) return json;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonParser parser = JSON_FACTORY.createParser(json);
+         JsonGenerator gen = SMILE_FACTORY.createGenerator(out)) {
+      parser.nextToken();
+      gen.copyCurrentStructure(parser);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  public static SolrSearchResponse parse(byte[] json) {
+    try {
+      return SolrSearchResponse.parse(new ByteArrayInputStream(json));
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public static Metadata loadMetadata() {
+    return new Metadata(parse(load(CATEGORIES_METADATA)), parse(load(FIELDS_METADATA)));
+  }
+
+  /**
+   * Builds a cursor page of export results, as returned by SOLR for the
+   * fields requested by exports (primaryKey, score, project).
+   *
+   * @param numRows number of documents in the page
+   * @return SOLR response in JSON
+   */
+  public static byte[] exportPage(int numRows) {
+    return exportPage(numRows, numRows * 4, "AoE/E2dlbmVfX1BGM0Q3XzE0NjEzMDA=");
+  }
+
+  /**
+   * Builds a cursor page of export results, as returned by SOLR for the
+   * fields requested by exports (primaryKey, score, project).
+   *
+   * @param numRows number of documents in the page
+   * @param numFound total number of documents matching the query
+   * @param nextCursorMark cursor mark of the following page
+   * @return SOLR response in JSON
+   */
+  public static byte[] exportPage(int numRows, int numFound, String nextCursorMark) {
+    return exportResponse(numRows, numFound, nextCursorMark);
+  }
+
+  /**
+   * Builds a response of SOLR's /export handler, which returns all results at
+   * once with docValues fields only: documents have no score, primary keys
+   * are single-valued (as the service requires of export handler document
+   * types) and there is no cursor mark.
+   *
+   * @param numRows number of documents matching the query
+   * @return SOLR response in JSON
+   */
+  public static byte[] exportHandlerResponse(int numRows) {
+    return exportResponse(numRows, numRows, null);
+  }
+
+  // cursor page if nextCursorMark is non-null, else /export handler response
+  private static byte[] exportResponse(int numRows, int numFound, String nextCursorMark) {
+    boolean cursorPage = nextCursorMark != null;
+    Random random = new Random(42);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonGenerator gen = JSON_FACTORY.createGenerator(out)) {
+      gen.writeStartObject();
+      gen.writeObjectFieldStart("responseHeader");
+      gen.writeNumberField("status", 0);
+      gen.writeNumberField("QTime", 212);
+      gen.writeEndObject();
+      gen.writeObjectFieldStart("response");
+      gen.writeNumberField("numFound", numFound);
+      gen.writeNumberField("start", 0);
+      gen.writeArrayFieldStart("docs");
+      for (int i = 0; i < numRows; i++) {
+        String project = PROJECTS[random.nextInt(PROJECTS.length)];
+        gen.writeStartObject();
+        gen.writeArrayFieldStart("primaryKey");
+        gen.writeString(String.format("PF3D7_%07d", random.nextInt(1500000)));
+        if (cursorPage) {
+          gen.writeString(project);
+        }
+        gen.writeEndArray();
+        if (cursorPage) {
+          gen.writeNumberField("score", (float)(random.nextDouble() * 40));
+        }
+        gen.writeStringField("project", project);
+        gen.writeEndObject();
+      }
+      gen.writeEndArray();
+      gen.writeEndObject();
+      if (cursorPage) {
+        gen.writeStringField("nextCursorMark", nextCursorMark);
+      }
+      gen.writeEndObject();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+}
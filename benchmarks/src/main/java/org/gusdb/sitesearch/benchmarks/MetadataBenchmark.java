@@ -0,0 +1,70 @@
+package org.gusdb.sitesearch.benchmarks;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.request.HighlightMode;
+import org.gusdb.sitesearch.service.request.SearchRequest;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Metadata construction (parsing the metadata documents and precomputing
+ * search plans) and search plan lookup per request
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataBenchmark {
+
+  private byte[] _categoriesJson;
+  private byte[] _fieldsJson;
+  private Metadata _metadata;
+  private List<SearchRequest> _requests;
+
+  @Setup
+  public void setup() {
+    _categoriesJson = Fixtures.load(Fixtures.CATEGORIES_METADATA);
+    _fieldsJson = Fixtures.load(Fixtures.FIELDS_METADATA);
+    _metadata = Fixtures.loadMetadata();
+    _requests = List.of(
+      new SearchRequest("kinase", 0, 20, Optional.empty(), Optional.empty(), HighlightMode.SNIPPETS),
+      new SearchRequest("kinase", 0, 20, Optional.empty(), Optional.of("PlasmoDB"), HighlightMode.SNIPPETS),
+      new SearchRequest("kinase", 0, 20, Optional.of("gene"), Optional.of("ToxoDB"), HighlightMode.SNIPPETS),
+      new SearchRequest(new JSONObject()
+        .put("searchText", "kinase")
+        .put("pagination", new JSONObject().put("offset", 0).put("numRecords", 20))
+        .put("restrictToProject", "PlasmoDB")
+        .put("documentTypeFilter", new JSONObject()
+          .put("documentType", "gene")
+          .put("foundOnlyInFields", List.of("TEXT__gene_product", "MULTITEXT__gene_GOTerms"))),
+        true, false, false));
+  }
+
+  @Benchmark
+  public Metadata constructMetadata() {
+    return new Metadata(Fixtures.parse(_categoriesJson), Fixtures.parse(_fieldsJson));
+  }
+
+  @Benchmark
+  public void getSearchPlans(Blackhole blackhole) {
+    for (SearchRequest request : _requests) {
+      blackhole.consume(_metadata.getSearchPlan(request, true));
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package org.gusdb.sitesearch.benchmarks;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.gusdb.sitesearch.service.JsonOutput;
+import org.gusdb.sitesearch.service.ResultsFormatter;
+import org.gusdb.sitesearch.service.metadata.FacetCounts;
+import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.request.HighlightMode;
+import org.gusdb.sitesearch.service.solr.SolrSearchResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Formatting a page of SOLR search results (with facets and highlighting)
+ * into the service's JSON response
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultsFormatterBenchmark {
+
+  @Param({ "20", "50" })
+  public int numDocs;
+
+  @Param({ "snippets", "fieldNames" })
+  public String highlight;
+
+  private Metadata _metadata;
+  private FacetCounts _facets;
+  private SolrSearchResponse _response;
+  private HighlightMode _highlightMode;
+
+  @Setup
+  public void setup() {
+    _metadata = Fixtures.loadMetadata();
+    _response = Fixtures.parse(Fixtures.load("search-" + numDocs + ".json"));
+    _facets = new FacetCounts();
+    _facets.setDocTypeFacetCounts(_response.getFacetCounts());
+    _facets.setOrganismFacetCounts(Optional.empty(), _response.getFacetCounts());
+    _highlightMode = HighlightMode.fromValue(highlight);
+  }
+
+  @Benchmark
+  public String formatResults() {
+    return JsonOutput.toJsonString(false, gen -> ResultsFormatter.writeResults(gen, _metadata, _facets,
+        _response, Optional.of("PlasmoDB"), _highlightMode, Optional.empty()));
+  }
+}
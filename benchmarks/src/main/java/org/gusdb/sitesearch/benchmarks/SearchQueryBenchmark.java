@@ -0,0 +1,70 @@
+package org.gusdb.sitesearch.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gusdb.sitesearch.service.SolrCalls;
+import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.request.SearchRequest;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the SOLR query string of a search, for requests of increasing
+ * complexity
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchQueryBenchmark {
+
+  @Param({ "unfiltered", "docType", "docTypeFields", "organisms" })
+  public String requestShape;
+
+  private Metadata _metadata;
+  private SearchRequest _request;
+
+  @Setup
+  public void setup() {
+    _metadata = Fixtures.loadMetadata();
+    JSONObject json = new JSONObject()
+      .put("searchText", "kinase")
+      .put("pagination", new JSONObject().put("offset", 0).put("numRecords", 20))
+      .put("restrictToProject", "PlasmoDB");
+    switch (requestShape) {
+      case "docType":
+        json.put("documentTypeFilter", new JSONObject().put("documentType", "gene"));
+        break;
+      case "docTypeFields":
+        json.put("documentTypeFilter", new JSONObject()
+          .put("documentType", "gene")
+          .put("foundOnlyInFields", List.of("TEXT__gene_product", "MULTITEXT__gene_GOTerms")));
+        break;
+      case "organisms":
+        json.put("restrictMetadataToOrganisms", List.of("Plasmodium falciparum 3D7", "Plasmodium vivax P01", "Plasmodium berghei ANKA"))
+            .put("restrictSearchToOrganisms", List.of("Plasmodium falciparum 3D7"));
+        break;
+      default:
+    }
+    _request = new SearchRequest(json, true, false, false);
+    _metadata.validateRequest(_request);
+  }
+
+  @Benchmark
+  public String buildSearchRequest() {
+    return SolrCalls.buildSearchRequest(_request, _metadata, false, _request.hasDocTypeFilter());
+  }
+}
@@ -0,0 +1,51 @@
+package org.gusdb.sitesearch.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.gusdb.sitesearch.service.solr.SolrResponseFormat;
+import org.gusdb.sitesearch.service.solr.SolrSearchResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing a SOLR search response in each supported wire format
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolrResponseBenchmark {
+
+  @Param({ "20", "50" })
+  public int numDocs;
+
+  @Param({ "json", "smile" })
+  public String format;
+
+  private SolrResponseFormat _responseFormat;
+  private byte[] _body;
+
+  @Setup
+  public void setup() {
+    _responseFormat = SolrResponseFormat.fromWriterType(format);
+    _body = Fixtures.encode(Fixtures.load("search-" + numDocs + ".json"), _responseFormat);
+  }
+
+  @Benchmark
+  public SolrSearchResponse parseSearchResponse() throws IOException {
+    return SolrSearchResponse.parse(new ByteArrayInputStream(_body), _responseFormat);
+  }
+}
@@ -0,0 +1,383 @@
+package org.gusdb.sitesearch.benchmarks.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.gusdb.sitesearch.benchmarks.load.LoadScenario.RequestType;
+
+/**
+ * End-to-end load test of the service against a stub SOLR.  Starts a
+ * {@link StubSolr}, launches the service jar pointed at it (or uses an
+ * already-running service), then runs each scenario with a closed loop of
+ * concurrent clients, reporting throughput (of successful requests), p50/p99
+ * latency, errors and the service's heap use per scenario.  Runs entirely on
+ * the local machine.
+ *
+ * Options (all optional):
+ *   --service-jar path    service fat jar to launch (default ../target/service.jar)
+ *   --service-url url     use an already-running service instead (must point at
+ *                         the stub SOLR; see --solr-port)
+ *   --service-port n      port for the launched service (default 18080)
+ *   --jvm-args "args"     JVM args for the launched service (default -Xmx1g)
+ *   --solr-port n         stub SOLR port (default: any free port)
+ *   --solr-format f       SOLR response format requested by the service (json or smile)
+ *   --latency-ms n        stub SOLR latency per call (default 20)
+ *   --jitter-ms n         stub SOLR random additional latency (default 10)
+ *   --error-rate x        fraction of stub SOLR search, suggest and export calls to fail (default 0)
+ *   --export-rows n       number of documents matched by exports (default 25000)
+ *   --export-handler-doc-types a,b
+ *                         SOLR_EXPORT_HANDLER_DOC_TYPES of the launched service, e.g.
+ *                         gene to stream wildcard exports from the /export handler
+ *                         (default none)
+ *   --concurrency n       concurrent clients per scenario (default 16)
+ *   --warmup-secs n       unmeasured time at the start of each scenario (default 10)
+ *   --duration-secs n     measured time of each scenario (default 30)
+ *   --scenarios a,b       names of scenarios to run (default all)
+ */
+public class LoadDriver {
+
+  public static final int DEFAULT_EXPORT_ROWS = 25000;
+
+  private static final String HEAP_USED_METRIC = "sitesearch_jvm_heap_used_bytes";
+  private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(120);
+  private static final long HEAP_SAMPLE_INTERVAL_MILLIS = 500;
+
+  /**
+   * Latencies of completed requests, in nanoseconds
+   */
+  private static class LatencyRecorder {
+
+    private long[] _values = new long[1024];
+    private int _size = 0;
+    private long _errorCount = 0;
+
+    private void record(long nanos) {
+      if (_size == _values.length) {
+        _values = Arrays.copyOf(_values, _size * 2);
+      }
+      _values[_size++] = nanos;
+    }
+
+    private void recordError() {
+      _errorCount++;
+    }
+
+    private void addAll(LatencyRecorder other) {
+      for (int i = 0; i < other._size; i++) {
+        record(other._values[i]);
+      }
+      _errorCount += other._errorCount;
+    }
+
+    private double getPercentileMillis(double percentile) {
+      if (_size == 0) return Double.NaN;
+      long[] sorted = Arrays.copyOf(_values, _size);
+      Arrays.sort(sorted);
+      int index = (int)Math.ceil(percentile / 100 * _size) - 1;
+      return sorted[Math.max(0, index)] / 1e6;
+    }
+  }
+
+  /**
+   * Service heap use sampled while a scenario runs
+   */
+  private static class HeapSampler implements Runnable {
+
+    private final HttpClient _client;
+    private final URI _metricsUri;
+    private volatile boolean _running = true;
+    private volatile long _maxBytes = -1;
+    private volatile long _lastBytes = -1;
+
+    private HeapSampler(HttpClient client, URI service) {
+      _client = client;
+      _metricsUri = service.resolve("metrics");
+    }
+
+    @Override
+    public void run() {
+      while (_running) {
+        long heapUsed = readHeapUsed(_client, _metricsUri);
+        if (heapUsed >= 0) {
+          _lastBytes = heapUsed;
+          _maxBytes = Math.max(_maxBytes, heapUsed);
+        }
+        try {
+          Thread.sleep(HEAP_SAMPLE_INTERVAL_MILLIS);
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String,String> options = parseOptions(args);
+    int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+    Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup-secs", "10")));
+    Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration-secs", "30")));
+    List<LoadScenario> scenarios = LoadScenario.getStandardScenarios(concurrency);
+    if (options.containsKey("scenarios")) {
+      List<String> names = Arrays.asList(options.get("scenarios").split(","));
+      scenarios = scenarios.stream().filter(s -> names.contains(s.getName())).collect(Collectors.toList());
+    }
+
+    HttpClient client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(10))
+      .executor(Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "load-client");
+        thread.setDaemon(true);
+        return thread;
+      }))
+      .build();
+
+    try (StubSolr solr = new StubSolr(
+        Integer.parseInt(options.getOrDefault("solr-port", "0")),
+        Long.parseLong(options.getOrDefault("latency-ms", "20")),
+        Long.parseLong(options.getOrDefault("jitter-ms", "10")),
+        Double.parseDouble(options.getOrDefault("error-rate", "0")),
+        Integer.parseInt(options.getOrDefault("export-rows", String.valueOf(DEFAULT_EXPORT_ROWS))))) {
+
+      System.out.println("Stub SOLR running at " + solr.getSolrUrl());
+      Process service = null;
+      URI serviceUri;
+      if (options.containsKey("service-url")) {
+        String url = options.get("service-url");
+        serviceUri = URI.create(url.endsWith("/") ? url : url + "/");
+      }
+      else {
+        int port = Integer.parseInt(options.getOrDefault("service-port", "18080"));
+        serviceUri = URI.create("http://localhost:" + port + "/");
+        service = launchService(options, solr, port);
+      }
+      try {
+        waitForService(client, serviceUri, service);
+        System.out.println("Service ready at " + serviceUri);
+        System.out.println();
+        printHeader();
+        for (LoadScenario scenario : scenarios) {
+          runScenario(client, serviceUri, solr, scenario, warmup, duration);
+        }
+      }
+      finally {
+        if (service != null) {
+          service.destroy();
+          if (!service.waitFor(10, TimeUnit.SECONDS)) {
+            service.destroyForcibly();
+          }
+        }
+      }
+    }
+  }
+
+  private static Map<String,String> parseOptions(String[] args) {
+    Map<String,String> options = new HashMap<>();
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--") || i + 1 == args.length) {
+        throw new IllegalArgumentException("Options must be given as --name value pairs; see " + LoadDriver.class.getName());
+      }
+      options.put(args[i].substring(2), args[++i]);
+    }
+    return options;
+  }
+
+  private static Process launchService(Map<String,String> options, StubSolr solr, int port) throws IOException {
+    File jar = new File(options.getOrDefault("service-jar", "../target/service.jar"));
+    if (!jar.isFile()) {
+      throw new IllegalArgumentException("Service jar " + jar.getAbsolutePath() + " not found; run 'make jar' or pass --service-jar");
+    }
+    List<String> command = new ArrayList<>();
+    command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+    command.addAll(Arrays.asList(options.getOrDefault("jvm-args", "-Xmx1g").trim().split("\\s+")));
+    command.add("-jar");
+    command.add(jar.getPath());
+    File log = new File("service.log");
+    ProcessBuilder builder = new ProcessBuilder(command)
+      .redirectErrorStream(true)
+      .redirectOutput(log);
+    builder.environment().put("SOLR_URL", solr.getSolrUrl());
+    builder.environment().put("SOLR_CORE", StubSolr.CORE_NAME);
+    builder.environment().put("SERVER_PORT", String.valueOf(port));
+    builder.environment().put("SOLR_RESPONSE_FORMAT", options.getOrDefault("solr-format", "json"));
+    if (options.containsKey("export-handler-doc-types")) {
+      builder.environment().put("SOLR_EXPORT_HANDLER_DOC_TYPES", options.get("export-handler-doc-types"));
+    }
+    System.out.println("Launching service (output in " + log.getAbsolutePath() + ")");
+    return builder.start();
+  }
+
+  /**
+   * Waits until the service responds successfully to a metadata request (which
+   * also loads its metadata from SOLR)
+   */
+  private static void waitForService(HttpClient client, URI service, Process process) throws Exception {
+    HttpRequest request = HttpRequest.newBuilder(service.resolve("categories-metadata")).GET().build();
+    long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+    while (System.nanoTime() < deadline) {
+      if (process != null && !process.isAlive()) {
+        throw new IllegalStateException("Service exited with status " + process.exitValue() + "; see service.log");
+      }
+      try {
+        if (client.send(request, BodyHandlers.discarding()).statusCode() == 200) return;
+      }
+      catch (ConnectException e) {
+        // not listening yet
+      }
+      Thread.sleep(500);
+    }
+    throw new IllegalStateException("Service did not become ready within " + STARTUP_TIMEOUT.toSeconds() + " seconds");
+  }
+
+  private static void runScenario(HttpClient client, URI service, StubSolr solr, LoadScenario scenario,
+      Duration warmup, Duration duration) throws Exception {
+    long start = System.nanoTime();
+    long measureStart = start + warmup.toNanos();
+    long end = measureStart + duration.toNanos();
+    AtomicLong solrCallsAtMeasureStart = new AtomicLong(-1);
+    AtomicLong solrErrorsAtMeasureStart = new AtomicLong(-1);
+
+    HeapSampler heap = new HeapSampler(client, service);
+    Thread heapThread = new Thread(() -> {
+      // sample only while measuring
+      sleepUntil(measureStart);
+      solrCallsAtMeasureStart.set(solr.getRequestCount());
+      solrErrorsAtMeasureStart.set(solr.getInjectedErrorCount());
+      heap.run();
+    }, "heap-sampler");
+    heapThread.setDaemon(true);
+    heapThread.start();
+
+    ExecutorService workers = Executors.newFixedThreadPool(scenario.getConcurrency());
+    List<Future<Map<RequestType,LatencyRecorder>>> results = new ArrayList<>();
+    for (int i = 0; i < scenario.getConcurrency(); i++) {
+      Random random = new Random(i);
+      results.add(workers.submit(() -> runClient(client, service, scenario, random, measureStart, end)));
+    }
+    Map<RequestType,LatencyRecorder> byType = new EnumMap<>(RequestType.class);
+    for (Future<Map<RequestType,LatencyRecorder>> result : results) {
+      result.get().forEach((type, recorder) -> byType.computeIfAbsent(type, t -> new LatencyRecorder()).addAll(recorder));
+    }
+    workers.shutdown();
+    heap._running = false;
+    heapThread.interrupt();
+    heapThread.join();
+
+    long solrCalls = solr.getRequestCount() - solrCallsAtMeasureStart.get();
+    long solrErrors = solr.getInjectedErrorCount() - solrErrorsAtMeasureStart.get();
+    double seconds = duration.toNanos() / 1e9;
+    LatencyRecorder total = new LatencyRecorder();
+    byType.values().forEach(total::addAll);
+    printRow(scenario.getName(), total, seconds, heap._maxBytes, heap._lastBytes, solrCalls, solrErrors);
+    if (scenario.getRequestTypes().size() > 1) {
+      for (RequestType type : scenario.getRequestTypes()) {
+        LatencyRecorder recorder = byType.get(type);
+        if (recorder != null) {
+          printRow("  " + type.name().toLowerCase(Locale.ROOT), recorder, seconds, -1, -1, -1, -1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Issues requests one after another until the end time, recording those
+   * completed after the measurement start
+   */
+  private static Map<RequestType,LatencyRecorder> runClient(HttpClient client, URI service,
+      LoadScenario scenario, Random random, long measureStart, long end) {
+    Map<RequestType,LatencyRecorder> recorders = new EnumMap<>(RequestType.class);
+    while (System.nanoTime() < end) {
+      RequestType type = scenario.nextRequestType(random);
+      HttpRequest request = type.create(service, random);
+      long start = System.nanoTime();
+      boolean success;
+      try {
+        HttpResponse<Void> response = client.send(request, BodyHandlers.discarding());
+        success = response.statusCode() < 400;
+      }
+      catch (IOException e) {
+        success = false;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      long finish = System.nanoTime();
+      if (start >= measureStart && finish <= end) {
+        LatencyRecorder recorder = recorders.computeIfAbsent(type, t -> new LatencyRecorder());
+        if (success) recorder.record(finish - start);
+        else recorder.recordError();
+      }
+    }
+    return recorders;
+  }
+
+  private static long readHeapUsed(HttpClient client, URI metricsUri) {
+    try {
+      String metrics = client.send(HttpRequest.newBuilder(metricsUri).GET().build(), BodyHandlers.ofString()).body();
+      for (String line : metrics.split("\n")) {
+        if (line.startsWith(HEAP_USED_METRIC + " ")) {
+          return (long)Double.parseDouble(line.substring(HEAP_USED_METRIC.length() + 1).trim());
+        }
+      }
+    }
+    catch (IOException | InterruptedException | RuntimeException e) {
+      // sampling is best-effort
+    }
+    return -1;
+  }
+
+  private static void sleepUntil(long nanoTime) {
+    long remaining;
+    while ((remaining = nanoTime - System.nanoTime()) > 0) {
+      try {
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+      }
+      catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  private static void printHeader() {
+    System.out.println(String.format(Locale.ROOT, "%-18s %9s %7s %9s %9s %9s %10s %10s %10s %10s",
+        "scenario", "requests", "errors", "req/s", "p50 ms", "p99 ms", "heap max", "heap end", "solr/req", "solr errs"));
+  }
+
+  private static void printRow(String name, LatencyRecorder recorder, double seconds,
+      long heapMaxBytes, long heapEndBytes, long solrCalls, long solrErrors) {
+    long requests = recorder._size + recorder._errorCount;
+    System.out.println(String.format(Locale.ROOT, "%-18s %9d %7d %9.1f %9.1f %9.1f %10s %10s %10s %10s",
+        name, requests, recorder._errorCount, recorder._size / seconds,
+        recorder.getPercentileMillis(50), recorder.getPercentileMillis(99),
+        formatMegabytes(heapMaxBytes), formatMegabytes(heapEndBytes),
+        solrCalls < 0 || requests == 0 ? "" : String.format(Locale.ROOT, "%.2f", (double)solrCalls / requests),
+        solrErrors < 0 ? "" : String.valueOf(solrErrors)));
+  }
+
+  private static String formatMegabytes(long bytes) {
+    return bytes < 0 ? "" : String.format(Locale.ROOT, "%.0f MB", bytes / 1048576.0);
+  }
+}
@@ -0,0 +1,195 @@
+package org.gusdb.sitesearch.benchmarks.load;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.json.JSONObject;
+
+/**
+ * A mix of service requests replayed by the load driver, and the number of
+ * concurrent clients issuing them
+ */
+public class LoadScenario {
+
+  // long enough for exports of the maximum size
+  private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+
+  // fraction of searches drawn from a small set of popular queries (cacheable); the rest are unique
+  private static final double POPULAR_QUERY_FRACTION = 0.2;
+
+  private static final String[] POPULAR_TERMS = {
+    "kinase", "protease", "rhoptry", "merozoite surface protein", "heat shock", "ribosomal",
+    "transporter", "erythrocyte membrane protein", "apicoplast", "dehydrogenase", "helicase",
+    "microneme", "chaperone", "polymerase", "phosphatase", "antigen", "ATP synthase", "tubulin"
+  };
+
+  private static final List<String> ORGANISMS = List.of(
+      "Plasmodium falciparum 3D7", "Plasmodium vivax P01", "Plasmodium berghei ANKA");
+
+  /**
+   * Type of request made to the service
+   */
+  public enum RequestType {
+
+    // GET search, paging through results of a document type
+    PAGED_SEARCH {
+      @Override
+      public HttpRequest create(URI service, Random random) {
+        return HttpRequest.newBuilder(service.resolve("?searchText=" + encode(searchText(random)) +
+            "&offset=" + (20 * random.nextInt(5)) + "&numRecords=20&docType=gene&projectId=PlasmoDB"))
+          .timeout(REQUEST_TIMEOUT).GET().build();
+      }
+    },
+
+    // POST search filtered by organism and by fields of a document type (field facets collected)
+    FACETED_SEARCH {
+      @Override
+      public HttpRequest create(URI service, Random random) {
+        JSONObject body = new JSONObject()
+          .put("searchText", searchText(random))
+          .put("pagination", new JSONObject().put("offset", 0).put("numRecords", 20))
+          .put("restrictToProject", "PlasmoDB")
+          .put("restrictMetadataToOrganisms", ORGANISMS)
+          .put("restrictSearchToOrganisms", List.of(ORGANISMS.get(random.nextInt(ORGANISMS.size()))))
+          .put("documentTypeFilter", new JSONObject()
+            .put("documentType", "gene")
+            .put("foundOnlyInFields", List.of("TEXT__gene_product", "MULTITEXT__gene_GOTerms")));
+        return HttpRequest.newBuilder(service)
+          .timeout(REQUEST_TIMEOUT)
+          .header("Content-Type", "application/json")
+          .header("Accept", "application/json")
+          .POST(BodyPublishers.ofString(body.toString()))
+          .build();
+      }
+    },
+
+    // search-as-you-type suggestions for a prefix of a term
+    SUGGEST {
+      @Override
+      public HttpRequest create(URI service, Random random) {
+        String term = POPULAR_TERMS[random.nextInt(POPULAR_TERMS.length)];
+        String prefix = term.substring(0, Math.min(term.length(), 3 + random.nextInt(4)));
+        return HttpRequest.newBuilder(service.resolve("suggest?searchText=" + encode(prefix)))
+          .timeout(REQUEST_TIMEOUT).GET().build();
+      }
+    },
+
+    // streamed export of all results of a document type
+    EXPORT {
+      @Override
+      public HttpRequest create(URI service, Random random) {
+        return export(service, searchText(random));
+      }
+    },
+
+    // streamed export of all documents of a type (from SOLR's /export handler
+    // if the type is one of the service's SOLR_EXPORT_HANDLER_DOC_TYPES)
+    WILDCARD_EXPORT {
+      @Override
+      public HttpRequest create(URI service, Random random) {
+        return export(service, "*");
+      }
+    };
+
+    public abstract HttpRequest create(URI service, Random random);
+
+    private static HttpRequest export(URI service, String searchText) {
+      JSONObject body = new JSONObject()
+        .put("searchText", searchText)
+        .put("documentTypeFilter", new JSONObject().put("documentType", "gene"));
+      return HttpRequest.newBuilder(service)
+        .timeout(REQUEST_TIMEOUT)
+        .header("Content-Type", "application/json")
+        .header("Accept", "application/x-ndjson")
+        .POST(BodyPublishers.ofString(body.toString()))
+        .build();
+    }
+
+    private static String searchText(Random random) {
+      String term = POPULAR_TERMS[random.nextInt(POPULAR_TERMS.length)];
+      return random.nextDouble() < POPULAR_QUERY_FRACTION ? term : term + " " + random.nextInt(1000000);
+    }
+
+    private static String encode(String value) {
+      return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * @param concurrency number of concurrent clients for single-type scenarios
+   * @return the standard scenarios: each request type alone, then a realistic mix
+   */
+  public static List<LoadScenario> getStandardScenarios(int concurrency) {
+    // exports are limited by the service's export lane, so fewer clients are used
+    int exportConcurrency = Math.min(concurrency, 4);
+    return List.of(
+      new LoadScenario("paged-search", concurrency, Map.of(RequestType.PAGED_SEARCH, 1)),
+      new LoadScenario("faceted-search", concurrency, Map.of(RequestType.FACETED_SEARCH, 1)),
+      new LoadScenario("suggest", concurrency, Map.of(RequestType.SUGGEST, 1)),
+      new LoadScenario("export", exportConcurrency, Map.of(RequestType.EXPORT, 1)),
+      new LoadScenario("wildcard-export", exportConcurrency, Map.of(RequestType.WILDCARD_EXPORT, 1)),
+      new LoadScenario("mixed", concurrency, orderedMap(
+        RequestType.PAGED_SEARCH, 50,
+        RequestType.FACETED_SEARCH, 25,
+        RequestType.SUGGEST, 22,
+        RequestType.EXPORT, 3)));
+  }
+
+  private static Map<RequestType,Integer> orderedMap(Object... typesAndWeights) {
+    Map<RequestType,Integer> map = new LinkedHashMap<>();
+    for (int i = 0; i < typesAndWeights.length; i += 2) {
+      map.put((RequestType)typesAndWeights[i], (Integer)typesAndWeights[i + 1]);
+    }
+    return map;
+  }
+
+  private final String _name;
+  private final int _concurrency;
+  private final List<RequestType> _types;
+  private final int[] _cumulativeWeights;
+
+  public LoadScenario(String name, int concurrency, Map<RequestType,Integer> weights) {
+    _name = name;
+    _concurrency = concurrency;
+    _types = Collections.unmodifiableList(new ArrayList<>(weights.keySet()));
+    _cumulativeWeights = new int[_types.size()];
+    int total = 0;
+    for (int i = 0; i < _types.size(); i++) {
+      total += weights.get(_types.get(i));
+      _cumulativeWeights[i] = total;
+    }
+  }
+
+  public String getName() {
+    return _name;
+  }
+
+  public int getConcurrency() {
+    return _concurrency;
+  }
+
+  public List<RequestType> getRequestTypes() {
+    return _types;
+  }
+
+  /**
+   * @return a request type chosen at random according to the scenario's weights
+   */
+  public RequestType nextRequestType(Random random) {
+    int value = random.nextInt(_cumulativeWeights[_cumulativeWeights.length - 1]);
+    for (int i = 0; i < _cumulativeWeights.length; i++) {
+      if (value < _cumulativeWeights[i]) return _types.get(i);
+    }
+    throw new IllegalStateException("Weights do not cover " + value);
+  }
+}
@@ -0,0 +1,319 @@
+package org.gusdb.sitesearch.benchmarks.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.sitesearch.benchmarks.Fixtures;
+import org.gusdb.sitesearch.service.solr.SolrResponseFormat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for SOLR which replays recorded responses to the calls
+ * the service makes: select (metadata documents, searches, export counts and
+ * cursor pages), export, suggest, admin/luke and admin/cores.  Each response
+ * is delayed by a fixed latency plus random jitter, and a fraction of search,
+ * suggest and export calls can be failed with a SOLR error (metadata calls are
+ * never failed, so the service can always start).  Responses honor the wt
+ * param (json or smile) and are gzipped if the client accepts it.
+ */
+public class StubSolr implements AutoCloseable {
+
+  private static final Logger LOG = LogManager.getLogger(StubSolr.class);
+
+  public static final String CORE_NAME = "site_search";
+
+  private static final String SOLR_CONTEXT = "/solr/";
+  private static final String CORE_PREFIX = CORE_NAME + "/";
+  private static final String INITIAL_CURSOR_MARK = "*";
+  private static final String CURSOR_MARK_PREFIX = "page-";
+  private static final int DEFAULT_SEARCH_ROWS = 20;
+  private static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+  private static final String JSON_CONTENT_TYPE = "application/json;charset=utf-8";
+  private static final byte[] INJECTED_ERROR = ("{\"responseHeader\":{\"status\":500,\"QTime\":0}," +
+      "\"error\":{\"msg\":\"Error injected by stub SOLR\",\"code\":500}}").getBytes(StandardCharsets.UTF_8);
+
+  static {
+    // without TCP_NODELAY, the JDK server's separate header and body writes stall on delayed ACKs (~40ms per call)
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+  /**
+   * Response to a SOLR call; bodies are built once per key and format
+   */
+  private static class Reply {
+
+    private final String _key;
+    private final boolean _failable;
+    private final Supplier<byte[]> _json;
+
+    private Reply(String key, boolean failable, Supplier<byte[]> json) {
+      _key = key;
+      _failable = failable;
+      _json = json;
+    }
+  }
+
+  private final HttpServer _server;
+  private final ExecutorService _executor;
+  private final long _latencyMillis;
+  private final long _jitterMillis;
+  private final double _errorRate;
+  private final int _exportRows;
+  private final Map<String,byte[]> _bodies = new ConcurrentHashMap<>();
+  private final LongAdder _requestCount = new LongAdder();
+  private final LongAdder _injectedErrorCount = new LongAdder();
+
+  /**
+   * Starts a stub SOLR listening on the loopback interface
+   *
+   * @param port port to listen on, or 0 for any free port
+   * @param latencyMillis minimum time to wait before responding
+   * @param jitterMillis maximum additional (uniformly random) time to wait
+   * @param errorRate fraction of search, suggest and export calls to fail
+   * @param exportRows number of documents matched by export queries
+   */
+  public StubSolr(int port, long latencyMillis, long jitterMillis, double errorRate, int exportRows) throws IOException {
+    _latencyMillis = latencyMillis;
+    _jitterMillis = jitterMillis;
+    _errorRate = errorRate;
+    _exportRows = exportRows;
+    AtomicInteger threadCount = new AtomicInteger();
+    _executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "stub-solr-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+    _server.createContext(SOLR_CONTEXT, this::handle);
+    _server.setExecutor(_executor);
+    _server.start();
+  }
+
+  /**
+   * @return base URL of this SOLR (the service's SOLR_URL)
+   */
+  public String getSolrUrl() {
+    return "http://localhost:" + _server.getAddress().getPort() + SOLR_CONTEXT;
+  }
+
+  public int getPort() {
+    return _server.getAddress().getPort();
+  }
+
+  /**
+   * @return number of calls received so far
+   */
+  public long getRequestCount() {
+    return _requestCount.sum();
+  }
+
+  /**
+   * @return number of calls failed by error injection so far
+   */
+  public long getInjectedErrorCount() {
+    return _injectedErrorCount.sum();
+  }
+
+  @Override
+  public void close() {
+    _server.stop(0);
+    _executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    _requestCount.increment();
+    try {
+      String path = exchange.getRequestURI().getPath().substring(SOLR_CONTEXT.length());
+      Map<String,List<String>> params = getParams(exchange);
+      Reply reply = route(path, params);
+      if (!delay()) {
+        send(exchange, 503, JSON_CONTENT_TYPE, INJECTED_ERROR, false);
+      }
+      else if (reply == null) {
+        send(exchange, 404, JSON_CONTENT_TYPE, ("{\"error\":{\"msg\":\"No stub response for " + path + "\",\"code\":404}}")
+            .getBytes(StandardCharsets.UTF_8), false);
+      }
+      else if (reply._failable && _errorRate > 0 && ThreadLocalRandom.current().nextDouble() < _errorRate) {
+        _injectedErrorCount.increment();
+        send(exchange, 500, JSON_CONTENT_TYPE, INJECTED_ERROR, false);
+      }
+      else {
+        SolrResponseFormat format = SolrResponseFormat.fromWriterType(getParam(params, "wt", "json"));
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        byte[] body = _bodies.computeIfAbsent(reply._key + "|" + format.getWriterType() + "|" + gzip,
+            key -> encode(reply._json.get(), format, gzip));
+        send(exchange, 200, format == SolrResponseFormat.JSON ? JSON_CONTENT_TYPE : SMILE_CONTENT_TYPE, body, gzip);
+      }
+    }
+    catch (RuntimeException e) {
+      LOG.error("Stub SOLR failed to respond to " + exchange.getRequestURI(), e);
+      send(exchange, 500, JSON_CONTENT_TYPE, INJECTED_ERROR, false);
+    }
+    finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Chooses the recorded response for a call, or null if the call is not one
+   * the service makes
+   */
+  private Reply route(String path, Map<String,List<String>> params) {
+    switch (path) {
+      case "admin/cores":
+        return fixture("admin-cores.json", false);
+      case CORE_PREFIX + "admin/luke":
+        return fixture("luke.json", false);
+      case CORE_PREFIX + "suggest":
+        return fixture("suggest.json", true);
+      case CORE_PREFIX + "export":
+        return new Reply("export", true, () -> Fixtures.exportHandlerResponse(_exportRows));
+      case CORE_PREFIX + "select":
+        return routeSelect(params);
+      default:
+        return null;
+    }
+  }
+
+  private Reply routeSelect(Map<String,List<String>> params) {
+    List<String> filters = params.getOrDefault("fq", Collections.emptyList());
+    if (filters.contains("document-type:(document-categories)")) return fixture(Fixtures.CATEGORIES_METADATA, false);
+    if (filters.contains("document-type:(document-fields)")) return fixture(Fixtures.FIELDS_METADATA, false);
+    if (filters.contains("document-type:(batch-meta)")) return fixture("batch-meta.json", false);
+
+    int rows = Integer.parseInt(getParam(params, "rows", String.valueOf(DEFAULT_SEARCH_ROWS)));
+    String cursorMark = getParam(params, "cursorMark", null);
+    if (cursorMark != null) {
+      // cursor pages of export results; the last page repeats the cursor mark it was sent
+      int page = cursorMark.equals(INITIAL_CURSOR_MARK) ? 0 :
+        Integer.parseInt(cursorMark.substring(CURSOR_MARK_PREFIX.length()));
+      int numRows = Math.max(0, Math.min(rows, _exportRows - page * rows));
+      String nextCursorMark = numRows == 0 ? cursorMark : CURSOR_MARK_PREFIX + (page + 1);
+      return new Reply("cursor|" + page + "|" + rows, true,
+          () -> Fixtures.exportPage(numRows, _exportRows, nextCursorMark));
+    }
+    if (rows == 0) {
+      // export count query
+      return new Reply("count", true, () -> Fixtures.exportPage(0, _exportRows, INITIAL_CURSOR_MARK));
+    }
+    return fixture(rows <= 20 ? "search-20.json" : "search-50.json", true);
+  }
+
+  private static Reply fixture(String name, boolean failable) {
+    return new Reply(name, failable, () -> Fixtures.load(name));
+  }
+
+  /**
+   * Waits for the configured latency plus jitter
+   *
+   * @return false if interrupted (i.e. the stub is shutting down)
+   */
+  private boolean delay() {
+    long millis = _latencyMillis + (_jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(_jitterMillis + 1) : 0);
+    if (millis <= 0) return true;
+    try {
+      Thread.sleep(millis);
+      return true;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static byte[] encode(byte[] json, SolrResponseFormat format, boolean gzip) {
+    byte[] body = Fixtures.encode(json, format);
+    if (!gzip) return body;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+      gzipOut.write(body);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  private static void send(HttpExchange exchange, int status, String contentType, byte[] body, boolean gzip) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    if (gzip) {
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  /**
+   * @return params from the query string and (for POST requests) the form body
+   */
+  private static Map<String,List<String>> getParams(HttpExchange exchange) throws IOException {
+    Map<String,List<String>> params = new HashMap<>();
+    addParams(params, exchange.getRequestURI().getRawQuery());
+    if (exchange.getRequestMethod().equals("POST")) {
+      addParams(params, new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+    }
+    return params;
+  }
+
+  private static void addParams(Map<String,List<String>> params, String encoded) {
+    if (encoded == null || encoded.isEmpty()) return;
+    for (String pair : encoded.split("&")) {
+      int equals = pair.indexOf('=');
+      String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+      String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+      params.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+    }
+  }
+
+  private static String getParam(Map<String,List<String>> params, String name, String defaultValue) {
+    List<String> values = params.get(name);
+    return values == null || values.isEmpty() ? defaultValue : values.get(0);
+  }
+
+  /**
+   * Runs a stub SOLR until killed, e.g. to run the service against by hand.
+   *
+   * Arguments: port [latencyMillis [jitterMillis [errorRate [exportRows]]]]
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("USAGE: " + StubSolr.class.getName() + " <port> [latencyMillis [jitterMillis [errorRate [exportRows]]]]");
+      System.exit(1);
+    }
+    StubSolr solr = new StubSolr(
+        Integer.parseInt(args[0]),
+        args.length > 1 ? Long.parseLong(args[1]) : 0,
+        args.length > 2 ? Long.parseLong(args[2]) : 0,
+        args.length > 3 ? Double.parseDouble(args[3]) : 0,
+        args.length > 4 ? Integer.parseInt(args[4]) : LoadDriver.DEFAULT_EXPORT_ROWS);
+    System.out.println("Stub SOLR listening; set SOLR_URL=" + solr.getSolrUrl() + " and SOLR_CORE=" + CORE_NAME);
+  }
+}
@@ -0,0 +1,130 @@
+package org.gusdb.sitesearch.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.gusdb.sitesearch.service.exception.ServiceBusyException;
+import org.gusdb.sitesearch.service.metrics.Metrics;
+
+/**
+ * Bounds the number of concurrent requests of one kind (e.g. interactive
+ * search or export), so that one kind of traffic cannot starve the others of
+ * service threads and SOLR connections.  Requests beyond the limit wait in a
+ * bounded queue for a limited time; requests which cannot be queued or time
+ * out waiting are rejected with a ServiceBusyException (i.e. a 503).  A
+ * request admitted after waiting continues on the lane's executor, not on the
+ * thread of the request which released its permit.
+ */
+public class AdmissionLane {
+
+  private final String _name;
+  private final int _maxConcurrent;
+  private final AsyncSemaphore _permits;
+  private final long _queueTimeoutMillis;
+  private final int _retryAfterSecs;
+  private final Executor _executor;
+
+  /**
+   * @param name name of this lane, used in messages
+   * @param maxConcurrent maximum number of requests processed at once
+   * @param maxQueued maximum number of requests waiting to be processed
+   * @param queueTimeoutSecs maximum time a request waits to be processed
+   * @param executor executor on which requests admitted after waiting are continued
+   */
+  public AdmissionLane(String name, int maxConcurrent, int maxQueued, int queueTimeoutSecs, Executor executor) {
+    _name = name;
+    _maxConcurrent = maxConcurrent;
+    _permits = new AsyncSemaphore(maxConcurrent, maxQueued);
+    _queueTimeoutMillis = queueTimeoutSecs * 1000L;
+    _retryAfterSecs = Math.max(1, queueTimeoutSecs);
+    _executor = executor;
+  }
+
+  /**
+   * @return future which completes once a permit is granted, on the calling
+   * thread if one is available, otherwise on this lane's executor
+   */
+  private CompletableFuture<Void> acquire() {
+    CompletableFuture<Void> permit = _permits.acquire(_queueTimeoutMillis);
+    return permit.isDone() ? permit : permit.thenApplyAsync(granted -> granted, _executor);
+  }
+
+  /**
+   * Runs the operation once admitted, holding this lane's permit until the
+   * operation's result is complete.
+   *
+   * @param operation starts the operation
+   * @return future result of the operation, which fails with a
+   * ServiceBusyException if the request is not admitted
+   */
+  public <T> CompletableFuture<T> run(Supplier<CompletableFuture<T>> operation) {
+    long start = System.nanoTime();
+    return acquire()
+      .exceptionally(e -> { throw busy(e); })
+      .thenCompose(permit -> {
+        Metrics.ADMISSION_WAIT_SECONDS.observeSince(_name, start);
+        CompletableFuture<T> result;
+        try {
+          result = operation.get();
+        }
+        catch (RuntimeException e) {
+          result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, e) -> _permits.release());
+      });
+  }
+
+  /**
+   * Returns a future which completes once admitted, with an action which
+   * releases this lane's permit.  The action may be called more than once
+   * (e.g. both when a streamed response is written and when the client
+   * disconnects); only the first call releases the permit.
+   *
+   * @return future release action, which fails with a ServiceBusyException if
+   * the request is not admitted
+   */
+  public CompletableFuture<Runnable> admit() {
+    long start = System.nanoTime();
+    return acquire()
+      .exceptionally(e -> { throw busy(e); })
+      .thenApply(permit -> {
+        Metrics.ADMISSION_WAIT_SECONDS.observeSince(_name, start);
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+          if (released.compareAndSet(false, true)) {
+            _permits.release();
+          }
+        };
+      });
+  }
+
+  private ServiceBusyException busy(Throwable e) {
+    Throwable cause = e.getCause() != null ? e.getCause() : e;
+    return new ServiceBusyException("Too many concurrent " + _name + " requests (" +
+        (cause instanceof TimeoutException ? "timed out waiting in queue" : "queue full") + ")", _retryAfterSecs);
+  }
+
+  /**
+   * @return name of this lane
+   */
+  public String getName() {
+    return _name;
+  }
+
+  /**
+   * @return number of requests waiting to be processed
+   */
+  public int getQueuedCount() {
+    return _permits.getWaiterCount();
+  }
+
+  /**
+   * @return number of requests currently being processed
+   */
+  public int getActiveCount() {
+    return _maxConcurrent - _permits.getAvailablePermits();
+  }
+}
@@ -0,0 +1,127 @@
+package org.gusdb.sitesearch.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Counting semaphore whose permits can be awaited without holding a thread.
+ * Waiters are granted permits in arrival order; the number of waiters may be
+ * bounded, and each waits at most a given time.
+ */
+public class AsyncSemaphore {
+
+  private final int _maxWaiters;
+  private final Deque<CompletableFuture<Void>> _waiters = new ArrayDeque<>();
+  private int _availablePermits;
+
+  /**
+   * @param permits number of permits
+   * @param maxWaiters maximum number of callers waiting for a permit
+   */
+  public AsyncSemaphore(int permits, int maxWaiters) {
+    _availablePermits = permits;
+    _maxWaiters = maxWaiters;
+  }
+
+  /**
+   * Returns a future which completes when a permit has been granted to the
+   * caller.  It fails with a RejectedExecutionException if too many callers
+   * are already waiting, or with a TimeoutException if no permit becomes
+   * available within the timeout.  The caller must call release() once done
+   * with a granted permit.
+   *
+   * @param timeoutMillis maximum time to wait for a permit
+   * @return future which completes when a permit is granted
+   */
+  public CompletableFuture<Void> acquire(long timeoutMillis) {
+    CompletableFuture<Void> permit = new CompletableFuture<>();
+    synchronized(_waiters) {
+      if (_availablePermits > 0) {
+        _availablePermits--;
+        permit.complete(null);
+        return permit;
+      }
+      if (_waiters.size() >= _maxWaiters) {
+        return CompletableFuture.failedFuture(new RejectedExecutionException("Too many waiters"));
+      }
+      _waiters.add(permit);
+    }
+    permit.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((value, e) -> {
+      if (e != null) {
+        synchronized(_waiters) {
+          _waiters.remove(permit);
+        }
+      }
+    });
+    return permit;
+  }
+
+  /**
+   * Blocks until a permit has been granted to the caller.
+   *
+   * @param timeoutMillis maximum time to wait for a permit
+   * @throws RejectedExecutionException if too many callers are already waiting
+   * @throws TimeoutException if no permit becomes available within the timeout
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void acquireBlocking(long timeoutMillis) throws TimeoutException, InterruptedException {
+    CompletableFuture<Void> permit = acquire(timeoutMillis);
+    try {
+      permit.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof TimeoutException) throw (TimeoutException)e.getCause();
+      throw (RuntimeException)e.getCause();
+    }
+    catch (InterruptedException e) {
+      // if the permit was granted before we could abandon it, give it back
+      if (!permit.cancel(false) && !permit.isCompletedExceptionally()) {
+        release();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Passes a permit to the next waiter, or returns it to the pool if none are
+   * waiting.  Waiters which have timed out or been cancelled are skipped.
+   */
+  public void release() {
+    while (true) {
+      CompletableFuture<Void> next;
+      synchronized(_waiters) {
+        next = _waiters.poll();
+        if (next == null) {
+          _availablePermits++;
+          return;
+        }
+      }
+      if (next.complete(null)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return number of callers currently waiting for a permit
+   */
+  public int getWaiterCount() {
+    synchronized(_waiters) {
+      return _waiters.size();
+    }
+  }
+
+  /**
+   * @return number of permits not currently granted
+   */
+  public int getAvailablePermits() {
+    synchronized(_waiters) {
+      return _availablePermits;
+    }
+  }
+}
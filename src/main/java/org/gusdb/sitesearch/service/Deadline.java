@@ -0,0 +1,117 @@
+package org.gusdb.sitesearch.service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import org.gusdb.sitesearch.service.exception.RequestCancelledException;
+import org.gusdb.sitesearch.service.exception.ServiceBusyException;
+
+/**
+ * Point in time by which a request must be answered.  Created when a request
+ * arrives, so time spent waiting for admission and in earlier SOLR calls is
+ * deducted from the budget of later ones.  A deadline may also be cancelled
+ * (e.g. when the client disconnects), in which case no further SOLR calls are
+ * made on its behalf and its bound operations fail at once.
+ */
+public class Deadline {
+
+  private final long _expiresAtNanos;
+  private volatile boolean _cancelled = false;
+  private final CompletableFuture<Void> _cancellation = new CompletableFuture<>();
+
+  private Deadline(long expiresAtNanos) {
+    _expiresAtNanos = expiresAtNanos;
+  }
+
+  /**
+   * @param budget time allowed from now
+   * @return deadline the passed duration from now
+   */
+  public static Deadline after(Duration budget) {
+    return new Deadline(System.nanoTime() + budget.toNanos());
+  }
+
+  /**
+   * @return time remaining before the deadline, or zero if it has passed
+   */
+  public Duration getRemaining() {
+    return Duration.ofNanos(Math.max(0, _expiresAtNanos - System.nanoTime()));
+  }
+
+  /**
+   * Returns a deadline with the same expiry which is not cancelled with this
+   * one, for work shared with other requests (whose result outlives any one
+   * of them)
+   *
+   * @return deadline expiring at the same time as this one
+   */
+  public Deadline detach() {
+    return new Deadline(_expiresAtNanos);
+  }
+
+  /**
+   * Marks the request as abandoned
+   */
+  public void cancel() {
+    _cancelled = true;
+    _cancellation.completeExceptionally(new RequestCancelledException("Client disconnected"));
+  }
+
+  /**
+   * Returns a copy of the passed future which also fails with a
+   * RequestCancelledException as soon as this deadline is cancelled, so the
+   * request stops waiting on (but does not abort) the operation.
+   *
+   * @param future result of an operation performed for this request
+   * @return future completing with the operation or failing on cancellation
+   */
+  public <T> CompletableFuture<T> bind(CompletableFuture<T> future) {
+    CompletableFuture<T> bound = future.copy();
+    _cancellation.whenComplete((value, e) -> bound.completeExceptionally(e));
+    return bound;
+  }
+
+  /**
+   * Returns the time remaining before the deadline, failing if it has passed
+   * or the request has been cancelled.
+   *
+   * @param operation description of the operation about to be performed
+   * @return time remaining before the deadline
+   * @throws RequestCancelledException if the request has been cancelled
+   * @throws ServiceBusyException if the deadline has passed
+   */
+  public Duration checkRemaining(String operation) {
+    if (_cancelled) {
+      throw new RequestCancelledException("Client disconnected before " + operation);
+    }
+    Duration remaining = getRemaining();
+    if (remaining.isZero()) {
+      throw new ServiceBusyException("Request deadline passed before " + operation, 1);
+    }
+    return remaining;
+  }
+
+  /**
+   * Waits on an operation that is not bound by this deadline (e.g. one shared
+   * with other requests) for at most the time remaining.  The passed future
+   * should belong to this request alone, since it is completed exceptionally
+   * if the deadline passes first.
+   *
+   * @param future result of the operation
+   * @param operation description of the operation
+   * @return future which fails with ServiceBusyException if the deadline passes first
+   */
+  public <T> CompletableFuture<T> await(CompletableFuture<T> future, String operation) {
+    Duration remaining = checkRemaining(operation);
+    return bind(future).orTimeout(remaining.toNanos(), TimeUnit.NANOSECONDS).handle((value, e) -> {
+      if (e == null) return CompletableFuture.completedFuture(value);
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      return CompletableFuture.<T>failedFuture(!(cause instanceof TimeoutException) ? cause :
+        new ServiceBusyException("Request deadline passed while waiting for " + operation, 1));
+    }).thenCompose(Function.identity());
+  }
+}
@@ -0,0 +1,197 @@
+package org.gusdb.sitesearch.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
+
+/**
+ * Decouples production of export output (fetching and parsing pages from SOLR)
+ * from delivery to the client.  The producer runs on a separate thread and
+ * writes into a bounded queue of text chunks, so it can request the next page
+ * from SOLR while the calling thread is still writing the previous one to the
+ * client.  When the queue is full (i.e. the client is slow), the producer
+ * blocks, so heap use per export stays bounded.
+ */
+public class ExportPipeline {
+
+  private static final Logger LOG = LogManager.getLogger(ExportPipeline.class);
+
+  // marks the end of production in the chunk queue
+  private static final Object END_OF_OUTPUT = new Object();
+
+  /**
+   * Produces export output into a writer
+   */
+  @FunctionalInterface
+  public interface OutputProducer {
+    void write(Writer writer) throws IOException;
+  }
+
+  /**
+   * Runs the producer on the executor, writing its output to the passed writer
+   * on the calling thread.  If the executor cannot accept the producer, it is
+   * run directly on the calling thread instead.
+   *
+   * @param executor executor on which to run the producer
+   * @param producer produces output
+   * @param out writer to the client
+   * @param chunkSize number of characters buffered before a chunk is queued
+   * @param maxQueuedChunks maximum number of chunks produced but not yet written
+   */
+  public static void write(ExecutorService executor, OutputProducer producer,
+      Writer out, int chunkSize, int maxQueuedChunks) throws IOException {
+    new ExportPipeline(maxQueuedChunks).run(executor, producer, out, chunkSize);
+  }
+
+  private final BlockingQueue<Object> _queue;
+  private volatile boolean _consumerDone = false;
+
+  private ExportPipeline(int maxQueuedChunks) {
+    _queue = new ArrayBlockingQueue<>(maxQueuedChunks);
+  }
+
+  private void run(ExecutorService executor, OutputProducer producer, Writer out, int chunkSize) throws IOException {
+    Future<?> production;
+    try {
+      production = executor.submit(() -> produce(producer, chunkSize));
+    }
+    catch (RejectedExecutionException e) {
+      LOG.warn("Export prefetch threads are saturated; exporting without prefetch");
+      producer.write(out);
+      out.flush();
+      return;
+    }
+
+    try {
+      Object next;
+      while ((next = nextItem(out)) != END_OF_OUTPUT) {
+        if (next instanceof Throwable) {
+          rethrow((Throwable)next);
+        }
+        out.write((String)next);
+      }
+      out.flush();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for export data");
+    }
+    finally {
+      // stops the producer if we are exiting early (e.g. client went away)
+      _consumerDone = true;
+      production.cancel(true);
+    }
+  }
+
+  /**
+   * Returns the next queued item.  If none is ready, output written so far is
+   * flushed to the client before waiting; besides reducing latency, this
+   * reveals a disconnected client (by a failed write) while the producer is
+   * still waiting on SOLR, so the export can be aborted promptly.
+   */
+  private Object nextItem(Writer out) throws IOException, InterruptedException {
+    Object next = _queue.poll();
+    if (next == null) {
+      out.flush();
+      next = _queue.take();
+    }
+    return next;
+  }
+
+  private void produce(OutputProducer producer, int chunkSize) {
+    try {
+      try (ChunkWriter writer = new ChunkWriter(chunkSize)) {
+        producer.write(writer);
+      }
+      enqueue(END_OF_OUTPUT);
+    }
+    catch (Throwable t) {
+      if (!_consumerDone) {
+        try {
+          enqueue(t);
+        }
+        catch (InterruptedIOException e) {
+          // consumer has gone away; nothing more to do
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds an item to the queue, waiting for space; gives up if the consumer
+   * has stopped reading (the producer's interrupt flag may have been cleared
+   * by the I/O it was performing, so this cannot rely on interruption alone).
+   */
+  private void enqueue(Object item) throws InterruptedIOException {
+    try {
+      while (!_queue.offer(item, 1, TimeUnit.SECONDS)) {
+        if (_consumerDone) {
+          throw new InterruptedIOException("Export cancelled");
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Export cancelled");
+    }
+  }
+
+  private static void rethrow(Throwable t) throws IOException {
+    if (t instanceof IOException) throw (IOException)t;
+    if (t instanceof RuntimeException) throw (RuntimeException)t;
+    if (t instanceof Error) throw (Error)t;
+    throw new SiteSearchRuntimeException("Export failed", t);
+  }
+
+  /**
+   * Writer which buffers text and puts it on the queue in chunks
+   */
+  private class ChunkWriter extends Writer {
+
+    private final int _chunkSize;
+    private StringBuilder _buffer;
+
+    public ChunkWriter(int chunkSize) {
+      _chunkSize = chunkSize;
+      _buffer = new StringBuilder(chunkSize);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      _buffer.append(cbuf, off, len);
+      if (_buffer.length() >= _chunkSize) {
+        flush();
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      _buffer.append(str, off, off + len);
+      if (_buffer.length() >= _chunkSize) {
+        flush();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (_buffer.length() == 0) return;
+      enqueue(_buffer.toString());
+      _buffer = new StringBuilder(_chunkSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
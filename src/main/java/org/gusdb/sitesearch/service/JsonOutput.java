@@ -0,0 +1,106 @@
+package org.gusdb.sitesearch.service;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes service responses with a streaming JSON generator, so no intermediate
+ * JSONObject tree is built.  Output is compact unless pretty printing is
+ * requested.  Values are written as org.json would have written them (e.g.
+ * null-valued properties are omitted and numbers use org.json's formatting),
+ * so responses are unchanged apart from whitespace.
+ */
+public class JsonOutput {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  /**
+   * Writes a JSON value to a generator
+   */
+  @FunctionalInterface
+  public interface JsonWriter {
+    void write(JsonGenerator gen) throws IOException;
+  }
+
+  /**
+   * @param pretty whether to indent output
+   * @param writer writes the JSON value
+   * @return JSON string produced by the writer
+   */
+  public static String toJsonString(boolean pretty, JsonWriter writer) {
+    StringWriter out = new StringWriter();
+    try (JsonGenerator gen = JSON_FACTORY.createGenerator(out)) {
+      if (pretty) {
+        gen.useDefaultPrettyPrinter();
+      }
+      writer.write(gen);
+    }
+    catch (IOException e) {
+      throw new SiteSearchRuntimeException("Could not write JSON response", e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes a property unless its value is null (matching JSONObject.put())
+   */
+  public static void writeField(JsonGenerator gen, String name, Object value) throws IOException {
+    if (value == null) return;
+    gen.writeFieldName(name);
+    writeValue(gen, value);
+  }
+
+  /**
+   * Writes an org.json value (JSONObject, JSONArray, or scalar)
+   */
+  public static void writeValue(JsonGenerator gen, Object value) throws IOException {
+    if (value == null || JSONObject.NULL.equals(value)) {
+      gen.writeNull();
+    }
+    else if (value instanceof JSONObject) {
+      JSONObject obj = (JSONObject)value;
+      gen.writeStartObject();
+      for (String key : obj.keySet()) {
+        writeField(gen, key, obj.opt(key));
+      }
+      gen.writeEndObject();
+    }
+    else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray)value;
+      gen.writeStartArray();
+      for (int i = 0; i < array.length(); i++) {
+        writeValue(gen, array.opt(i));
+      }
+      gen.writeEndArray();
+    }
+    else if (value instanceof Number) {
+      gen.writeNumber(JSONObject.numberToString((Number)value));
+    }
+    else if (value instanceof Boolean) {
+      gen.writeBoolean((Boolean)value);
+    }
+    else {
+      gen.writeString(value.toString());
+    }
+  }
+
+  /**
+   * Writes a map of counts as a JSON object
+   */
+  public static void writeCounts(JsonGenerator gen, Map<String,Integer> counts) throws IOException {
+    gen.writeStartObject();
+    for (Entry<String,Integer> count : counts.entrySet()) {
+      gen.writeNumberField(count.getKey(), count.getValue());
+    }
+    gen.writeEndObject();
+  }
+}
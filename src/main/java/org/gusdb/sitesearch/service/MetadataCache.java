@@ -0,0 +1,131 @@
+package org.gusdb.sitesearch.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.solr.SolrClient;
+
+/**
+ * Process-wide cache of the metadata stored in the SOLR core.  The categories
+ * and fields documents only change when a new batch is loaded (or the core is
+ * reloaded), so they are fetched and parsed once and the resulting immutable
+ * Metadata is shared by all requests until the core's metadata version (index
+ * version plus batch-meta documents) changes.  The version is checked at most
+ * once per check interval, so most requests incur no metadata calls to SOLR.
+ */
+public class MetadataCache {
+
+  private static final Logger LOG = LogManager.getLogger(MetadataCache.class);
+
+  private static class Entry {
+
+    private final Metadata _metadata;
+    private final String _version;
+    private final long _checkedAt;
+
+    public Entry(Metadata metadata, String version, long checkedAt) {
+      _metadata = metadata;
+      _version = version;
+      _checkedAt = checkedAt;
+    }
+  }
+
+  private final long _checkIntervalMillis;
+  private final ExecutorService _executor;
+
+  private volatile Entry _entry;
+  private long _loadCount = 0; // guarded by this
+  private final AtomicBoolean _refreshing = new AtomicBoolean(false);
+
+  /**
+   * @param checkIntervalSecs minimum number of seconds between checks of the
+   * metadata version in SOLR; a value <= 0 means check on every request
+   * @param executor executor used to make metadata calls to SOLR concurrently
+   */
+  public MetadataCache(long checkIntervalSecs, ExecutorService executor) {
+    _checkIntervalMillis = checkIntervalSecs * 1000;
+    _executor = executor;
+  }
+
+  /**
+   * Returns metadata for the core, reloading the metadata documents only if
+   * the check interval has expired and the metadata version has changed.
+   *
+   * @param solr shared SOLR client
+   * @return metadata object
+   */
+  public Metadata getMetadata(SolrClient solr) {
+    Entry entry = _entry;
+    if (isCurrent(entry)) {
+      return entry._metadata;
+    }
+    synchronized(this) {
+      // another thread may have refreshed while we waited
+      entry = _entry;
+      if (!isCurrent(entry)) {
+        // read version before documents so a change between calls causes another reload later
+        String version = SolrCalls.getMetadataVersion(solr, _executor);
+        long now = System.currentTimeMillis();
+        if (entry != null && entry._version.equals(version)) {
+          entry = new Entry(entry._metadata, version, now);
+        }
+        else {
+          LOG.info("Loading metadata for SOLR metadata version " + version +
+              (entry == null ? "" : " (previous version " + entry._version + ")"));
+          entry = new Entry(SolrCalls.initializeMetadata(solr, _executor, version, ++_loadCount), version, now);
+        }
+        _entry = entry;
+      }
+      return entry._metadata;
+    }
+  }
+
+  /**
+   * Returns metadata for the core without blocking once metadata has been
+   * loaded.  If the check interval has expired, the current metadata is
+   * returned and the version is checked (and the metadata reloaded if needed)
+   * in the background.  Only the first load blocks the calling thread.
+   *
+   * @param solr shared SOLR client
+   * @return future metadata object
+   */
+  public CompletableFuture<Metadata> getMetadataAsync(SolrClient solr) {
+    Entry entry = _entry;
+    if (entry == null) {
+      try {
+        return CompletableFuture.completedFuture(getMetadata(solr));
+      }
+      catch (RuntimeException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+    if (!isCurrent(entry) && _refreshing.compareAndSet(false, true)) {
+      try {
+        _executor.execute(() -> {
+          try {
+            getMetadata(solr);
+          }
+          catch (RuntimeException e) {
+            LOG.error("Unable to refresh metadata; will retry on a later request", e);
+          }
+          finally {
+            _refreshing.set(false);
+          }
+        });
+      }
+      catch (RejectedExecutionException e) {
+        _refreshing.set(false);
+      }
+    }
+    return CompletableFuture.completedFuture(entry._metadata);
+  }
+
+  private boolean isCurrent(Entry entry) {
+    return entry != null && System.currentTimeMillis() - entry._checkedAt < _checkIntervalMillis;
+  }
+}
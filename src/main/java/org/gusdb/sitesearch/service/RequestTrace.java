@@ -0,0 +1,212 @@
+package org.gusdb.sitesearch.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.gusdb.sitesearch.service.exception.InvalidRequestException;
+import org.gusdb.sitesearch.service.metrics.Metrics;
+import org.gusdb.sitesearch.service.metrics.MetricsText;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Collects the timings of a single request's phases and SOLR calls, which are
+ * returned in a Server-Timing header.  If debugging is requested, the SOLR
+ * requests made are also recorded so they can be added to the response body
+ * and reproduced by hand.
+ */
+public class RequestTrace {
+
+  public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+  private static final String DEBUG_TIMING = "timing";
+
+  private static class Timing {
+
+    private final String _name;
+    private final Double _durationMillis;
+    private final String _description;
+
+    private Timing(String name, Double durationMillis, String description) {
+      _name = name;
+      _durationMillis = durationMillis;
+      _description = description;
+    }
+  }
+
+  private static class SolrCall {
+
+    private final String _call;
+    private final String _request;
+    private final double _durationMillis;
+    private final int _qTime;
+
+    private SolrCall(String call, String request, double durationMillis, int qTime) {
+      _call = call;
+      _request = request;
+      _durationMillis = durationMillis;
+      _qTime = qTime;
+    }
+  }
+
+  private final boolean _debug;
+  private final List<Timing> _timings = new ArrayList<>();
+  private final List<SolrCall> _solrCalls = new ArrayList<>();
+
+  /**
+   * @return new trace which records timings only
+   */
+  public static RequestTrace start() {
+    return new RequestTrace(false);
+  }
+
+  /**
+   * @param debugParam value of the request's debug param (may be null)
+   * @return new trace, recording SOLR requests if debug timing was requested
+   * @throws InvalidRequestException if the debug param value is not supported
+   */
+  public static RequestTrace forDebugParam(String debugParam) {
+    if (debugParam != null && !debugParam.equals(DEBUG_TIMING)) {
+      throw new InvalidRequestException("Unsupported debug value '" + debugParam + "'; only '" + DEBUG_TIMING + "' is supported");
+    }
+    return new RequestTrace(debugParam != null);
+  }
+
+  private RequestTrace(boolean debug) {
+    _debug = debug;
+  }
+
+  /**
+   * @return true if debug output should be added to the response
+   */
+  public boolean isDebug() {
+    return _debug;
+  }
+
+  /**
+   * Records the time since the passed System.nanoTime() value as the duration
+   * of a processing phase, also adding it to the phase metrics
+   */
+  public void addPhase(String phase, long startNanos) {
+    double secs = MetricsText.secondsSince(startNanos);
+    Metrics.PHASE_SECONDS.observe(phase, secs);
+    add(new Timing(phase, secs * 1000, null));
+  }
+
+  /**
+   * Records an event without a duration (e.g. a cache hit)
+   */
+  public void addEvent(String name, String description) {
+    add(new Timing(name, null, description));
+  }
+
+  /**
+   * Records a SOLR call: its wall-clock time since the passed System.nanoTime()
+   * value, and the time SOLR reported spending on it
+   *
+   * @param call type of call
+   * @param request SOLR URL and query string of the call
+   * @param startNanos start of the call
+   * @param qTime SOLR's QTime, or a negative value if unknown
+   */
+  public void addSolrCall(String call, String request, long startNanos, int qTime) {
+    double durationMillis = MetricsText.secondsSince(startNanos) * 1000;
+    add(new Timing("solr-" + call, durationMillis, null));
+    if (qTime >= 0) {
+      add(new Timing("solr-" + call + "-qtime", (double)qTime, null));
+    }
+    if (_debug) {
+      synchronized(_solrCalls) {
+        _solrCalls.add(new SolrCall(call, request, durationMillis, qTime));
+      }
+    }
+  }
+
+  /**
+   * Adds the timings recorded by another trace (e.g. that of an operation
+   * shared with other requests) to this one
+   */
+  public void addTimings(RequestTrace other) {
+    List<Timing> timings;
+    synchronized(other._timings) {
+      timings = new ArrayList<>(other._timings);
+    }
+    synchronized(_timings) {
+      _timings.addAll(timings);
+    }
+  }
+
+  private void add(Timing timing) {
+    synchronized(_timings) {
+      _timings.add(timing);
+    }
+  }
+
+  /**
+   * @return value of the Server-Timing header for the timings recorded so far,
+   * or null if none have been recorded (so no header is sent)
+   */
+  public String getServerTimingHeader() {
+    StringBuilder header = new StringBuilder();
+    synchronized(_timings) {
+      for (Timing timing : _timings) {
+        if (header.length() > 0) header.append(", ");
+        header.append(timing._name);
+        if (timing._durationMillis != null) {
+          header.append(";dur=").append(formatMillis(timing._durationMillis));
+        }
+        if (timing._description != null) {
+          header.append(";desc=\"").append(timing._description.replace("\"", "'")).append('"');
+        }
+      }
+    }
+    return header.length() == 0 ? null : header.toString();
+  }
+
+  /**
+   * Writes the timings and SOLR requests recorded so far as a JSON object
+   */
+  public void writeDebugJson(JsonGenerator gen) throws IOException {
+    gen.writeStartObject();
+    gen.writeArrayFieldStart("timing");
+    synchronized(_timings) {
+      for (Timing timing : _timings) {
+        gen.writeStartObject();
+        gen.writeStringField("name", timing._name);
+        if (timing._durationMillis != null) {
+          gen.writeNumberField("durationMs", roundMillis(timing._durationMillis));
+        }
+        if (timing._description != null) {
+          gen.writeStringField("description", timing._description);
+        }
+        gen.writeEndObject();
+      }
+    }
+    gen.writeEndArray();
+    gen.writeArrayFieldStart("solrRequests");
+    synchronized(_solrCalls) {
+      for (SolrCall call : _solrCalls) {
+        gen.writeStartObject();
+        gen.writeStringField("call", call._call);
+        gen.writeStringField("request", call._request);
+        gen.writeNumberField("durationMs", roundMillis(call._durationMillis));
+        if (call._qTime >= 0) {
+          gen.writeNumberField("qTime", call._qTime);
+        }
+        gen.writeEndObject();
+      }
+    }
+    gen.writeEndArray();
+    gen.writeEndObject();
+  }
+
+  private static double roundMillis(double millis) {
+    return Math.round(millis * 10) / 10.0;
+  }
+
+  private static String formatMillis(double millis) {
+    return String.format(Locale.ROOT, "%.1f", millis);
+  }
+}
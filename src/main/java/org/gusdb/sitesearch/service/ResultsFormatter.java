@@ -1,76 +1,115 @@
 package org.gusdb.sitesearch.service;
 
-import java.util.List;
+import java.io.IOException;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
-import org.gusdb.fgputil.solr.Solr.Highlighting;
-import org.gusdb.fgputil.solr.SolrResponse;
 import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
 import org.gusdb.sitesearch.service.metadata.DocumentField;
 import org.gusdb.sitesearch.service.metadata.DocumentType;
+import org.gusdb.sitesearch.service.metadata.FacetCounts;
 import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.request.HighlightMode;
+import org.gusdb.sitesearch.service.solr.SolrSearchResponse;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+
 public class ResultsFormatter {
 
   private static final Logger LOG = Logger.getLogger(ResultsFormatter.class);
 
-  public static JSONObject formatResults(Metadata meta, SolrResponse searchResults, Optional<String> restrictToProject) {
-    return new JSONObject()
-      .put("categories", meta.getCategoriesJson())
-      .put("documentTypes", meta.getDocumentTypesJson(restrictToProject))
-      .put("organismCounts", meta.getOrganismFacetCounts())
-      .put("fieldCounts", meta.getFieldCounts())
-      .put("searchResults", new JSONObject()
-        .put("totalCount", searchResults.getTotalCount())
-        .put("documents", getDocumentsJson(meta, searchResults.getDocuments(), searchResults.getHighlighting(), restrictToProject)));
+  /**
+   * Writes the search response.  Note the service writes it to a String, so
+   * the whole response is still held in memory (it is needed whole for the
+   * response cache and for coalesced requests); writing directly avoids only
+   * the intermediate JSON objects.  partialResults is written only when true.
+   */
+  public static void writeResults(JsonGenerator gen, Metadata meta, FacetCounts facets, SolrSearchResponse searchResults,
+      Optional<String> restrictToProject, HighlightMode highlightMode, Optional<RequestTrace> debugTrace) throws IOException {
+    gen.writeStartObject();
+    gen.writeFieldName("categories");
+    meta.writeCategoriesJson(gen);
+    gen.writeFieldName("documentTypes");
+    meta.writeDocumentTypesJson(gen, restrictToProject, facets.getDocTypeFacetCounts());
+    gen.writeFieldName("organismCounts");
+    JsonOutput.writeCounts(gen, facets.getOrganismFacetCounts());
+    gen.writeFieldName("fieldCounts");
+    JsonOutput.writeCounts(gen, facets.getFieldCounts());
+    gen.writeObjectFieldStart("searchResults");
+    gen.writeNumberField("totalCount", searchResults.getTotalCount());
+    if (searchResults.isPartialResults()) {
+      gen.writeBooleanField("partialResults", true);
+    }
+    gen.writeArrayFieldStart("documents");
+    writeDocuments(gen, meta, searchResults, restrictToProject, highlightMode);
+    gen.writeEndArray();
+    gen.writeEndObject();
+    if (debugTrace.isPresent()) {
+      gen.writeFieldName("debug");
+      debugTrace.get().writeDebugJson(gen);
+    }
+    gen.writeEndObject();
   }
 
-  private static JSONArray getDocumentsJson(Metadata meta, List<JSONObject> documents, Highlighting highlighting, Optional<String> restrictToProject) {
-    return new JSONArray(documents.stream()
+  private static void writeDocuments(JsonGenerator gen, Metadata meta, SolrSearchResponse searchResults,
+      Optional<String> restrictToProject, HighlightMode highlightMode) throws IOException {
+    for (JSONObject documentJson : searchResults.getDocuments()) {
       // filter out batch-meta documents
-      .filter(documentJson -> !(SolrCalls.BATCH_META_DOCTYPE.equals(documentJson.getString(SolrCalls.DOCUMENT_TYPE_FIELD))))
+      if (SolrCalls.BATCH_META_DOCTYPE.equals(documentJson.getString(SolrCalls.DOCUMENT_TYPE_FIELD))) {
+        continue;
+      }
       // format raw document JSON to summary JSON
-      .map(documentJson -> {
-        //LOG.debug("Processing document: " + documentJson.toString(2));
-        DocumentType docType = meta.getDocumentType(documentJson.getString(SolrCalls.DOCUMENT_TYPE_FIELD))
-          .orElseThrow(() -> new SiteSearchRuntimeException("Unknown document type returned in document: " + documentJson.toString(2))); 
-        JSONArray primaryKey = documentJson.getJSONArray(SolrCalls.PRIMARY_KEY_FIELD);
-        JSONObject json = new JSONObject()
-          .put("documentType", docType.getId())
-          .put("primaryKey", primaryKey)
-          .put("project", documentJson.optString(SolrCalls.PROJECT_FIELD, null))
-          .put("organism", documentJson.optString(SolrCalls.ORGANISM_FIELD, null))
-          .put("score", documentJson.getDouble(SolrCalls.SCORE_FIELD))
-          .put("wdkPrimaryKeyString", documentJson.optString(SolrCalls.WDK_PRIMARY_KEY_FIELD, null))
-          .put("hyperlinkName", documentJson.optString(SolrCalls.HYPERLINK_NAME_FIELD, null))
-          .put("foundInFields", highlighting.get(documentJson.getString(SolrCalls.ID_FIELD)));
-        JSONObject summaryFields = new JSONObject();
-        String value;
-        JSONArray values;
-        for (DocumentField field : docType.getSummaryFields(restrictToProject)) {
-          if (field.isMultiText()) {
-            if ((values = documentJson.optJSONArray(field.getName())) != null) {
-              summaryFields.put(field.getName(), values);
-            }
-            else {
-              LOG.warn("Document of type '" + docType.getId() + "' with PK '" + primaryKey + "' does not contain multi-text summary field '" + field.getName());
-            }
+      //LOG.debug("Processing document: " + documentJson.toString(2));
+      DocumentType docType = meta.getDocumentType(documentJson.getString(SolrCalls.DOCUMENT_TYPE_FIELD))
+        .orElseThrow(() -> new SiteSearchRuntimeException("Unknown document type returned in document: " + documentJson.toString(2)));
+      JSONArray primaryKey = documentJson.getJSONArray(SolrCalls.PRIMARY_KEY_FIELD);
+      gen.writeStartObject();
+      gen.writeStringField("documentType", docType.getId());
+      JsonOutput.writeField(gen, "primaryKey", primaryKey);
+      JsonOutput.writeField(gen, "project", documentJson.optString(SolrCalls.PROJECT_FIELD, null));
+      JsonOutput.writeField(gen, "organism", documentJson.optString(SolrCalls.ORGANISM_FIELD, null));
+      JsonOutput.writeField(gen, "score", documentJson.getDouble(SolrCalls.SCORE_FIELD));
+      JsonOutput.writeField(gen, "wdkPrimaryKeyString", documentJson.optString(SolrCalls.WDK_PRIMARY_KEY_FIELD, null));
+      JsonOutput.writeField(gen, "hyperlinkName", documentJson.optString(SolrCalls.HYPERLINK_NAME_FIELD, null));
+      JsonOutput.writeField(gen, "foundInFields", getFoundInFields(searchResults.getHighlighting(documentJson.getString(SolrCalls.ID_FIELD)), highlightMode));
+      gen.writeObjectFieldStart("summaryFieldData");
+      String value;
+      JSONArray values;
+      for (DocumentField field : docType.getSummaryFields(restrictToProject)) {
+        if (field.isMultiText()) {
+          if ((values = documentJson.optJSONArray(field.getName())) != null) {
+            JsonOutput.writeField(gen, field.getName(), values);
           }
           else {
-            if ((value = documentJson.optString(field.getName(), null)) != null) {
-              summaryFields.put(field.getName(), value);
-            }
-            else {
-              LOG.warn("Document of type '" + docType.getId() + "' with PK '" + primaryKey + "' does not contain summary field '" + field.getName());
-            }
+            LOG.warn("Document of type '" + docType.getId() + "' with PK '" + primaryKey + "' does not contain multi-text summary field '" + field.getName());
           }
         }
-        return json.put("summaryFieldData", summaryFields);
-      })
-      .collect(Collectors.toList()));
+        else {
+          if ((value = documentJson.optString(field.getName(), null)) != null) {
+            gen.writeStringField(field.getName(), value);
+          }
+          else {
+            LOG.warn("Document of type '" + docType.getId() + "' with PK '" + primaryKey + "' does not contain summary field '" + field.getName());
+          }
+        }
+      }
+      gen.writeEndObject();
+      gen.writeEndObject();
+    }
+  }
+
+  // in field names mode, snippets are replaced with empty arrays so only the matching field names remain
+  private static JSONObject getFoundInFields(JSONObject highlighting, HighlightMode highlightMode) {
+    if (highlighting == null || highlightMode != HighlightMode.FIELD_NAMES) return highlighting;
+    JSONObject fieldNames = new JSONObject();
+    for (String field : highlighting.keySet()) {
+      JSONArray snippets = highlighting.optJSONArray(field);
+      if (snippets != null && !snippets.isEmpty()) {
+        fieldNames.put(field, new JSONArray());
+      }
+    }
+    return fieldNames;
   }
 }
@@ -0,0 +1,154 @@
+package org.gusdb.sitesearch.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.sitesearch.service.metadata.Metadata;
+
+/**
+ * Process-wide cache of formatted search responses, keyed on the normalized
+ * search request.  Entries are evicted least-recently-used when either the
+ * number of entries or their total size exceeds its bound, and expire after a
+ * fixed time to live.  All entries are discarded when newer metadata is seen,
+ * which happens when the core's index version changes, so responses are never
+ * served from a previous version of the index (beyond the metadata check
+ * interval).  While a metadata refresh is in progress, requests may still hold
+ * the previous metadata; they neither read nor add entries.
+ */
+public class SearchResponseCache {
+
+  private static final Logger LOG = LogManager.getLogger(SearchResponseCache.class);
+
+  private static class Entry {
+
+    private final String _response;
+    private final long _expiresAt;
+
+    public Entry(String response, long expiresAt) {
+      _response = response;
+      _expiresAt = expiresAt;
+    }
+  }
+
+  private final int _maxEntries;
+  private final long _maxTotalChars;
+  private final long _ttlMillis;
+
+  // access-ordered so iteration begins with the least recently used entry
+  private final LinkedHashMap<String,Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long _totalChars = 0;
+  private String _metadataVersion = null;
+  private long _metadataLoadSequence = -1;
+
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+  private final AtomicLong _evictions = new AtomicLong();
+
+  /**
+   * @param maxEntries maximum number of responses cached; a value <= 0 disables the cache
+   * @param maxTotalChars maximum total length of cached responses
+   * @param ttlSecs number of seconds after which a cached response expires
+   */
+  public SearchResponseCache(int maxEntries, long maxTotalChars, long ttlSecs) {
+    _maxEntries = maxEntries;
+    _maxTotalChars = maxTotalChars;
+    _ttlMillis = ttlSecs * 1000;
+  }
+
+  /**
+   * Looks up a cached response.
+   *
+   * @param meta metadata held by the request; if newer than that of cached responses, all are discarded
+   * @param key normalized search request
+   * @return cached response, or empty if not cached, expired, or the metadata is older than the cache's
+   */
+  public Optional<String> get(Metadata meta, String key) {
+    if (_maxEntries <= 0) return Optional.empty();
+    synchronized(this) {
+      if (!checkMetadata(meta)) {
+        _misses.incrementAndGet();
+        return Optional.empty();
+      }
+      Entry entry = _entries.get(key);
+      if (entry != null && entry._expiresAt <= System.currentTimeMillis()) {
+        remove(key);
+        entry = null;
+      }
+      (entry == null ? _misses : _hits).incrementAndGet();
+      return Optional.ofNullable(entry).map(e -> e._response);
+    }
+  }
+
+  /**
+   * Caches a response, evicting least recently used responses as needed.  The
+   * response is not cached if its metadata is older than the cache's.
+   *
+   * @param meta metadata used to produce the response
+   * @param key normalized search request
+   * @param response formatted response
+   */
+  public void put(Metadata meta, String key, String response) {
+    if (_maxEntries <= 0 || response.length() > _maxTotalChars) return;
+    synchronized(this) {
+      if (!checkMetadata(meta)) return;
+      remove(key);
+      _entries.put(key, new Entry(response, System.currentTimeMillis() + _ttlMillis));
+      _totalChars += response.length();
+      Iterator<Map.Entry<String,Entry>> lru = _entries.entrySet().iterator();
+      while (_entries.size() > _maxEntries || _totalChars > _maxTotalChars) {
+        _totalChars -= lru.next().getValue()._response.length();
+        lru.remove();
+        _evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Discards all entries if the passed metadata is newer than that of the
+   * cached responses.
+   *
+   * @return false if the passed metadata is older than that of the cached responses
+   */
+  private boolean checkMetadata(Metadata meta) {
+    if (meta.getVersion().equals(_metadataVersion)) return true;
+    if (meta.getLoadSequence() < _metadataLoadSequence) return false;
+    if (_metadataVersion != null) {
+      LOG.info("Metadata changed to version " + meta.getVersion() + "; clearing " + _entries.size() +
+          " cached search responses (hits=" + _hits.get() + ", misses=" + _misses.get() +
+          ", evictions=" + _evictions.get() + ")");
+    }
+    _entries.clear();
+    _totalChars = 0;
+    _metadataVersion = meta.getVersion();
+    _metadataLoadSequence = meta.getLoadSequence();
+    return true;
+  }
+
+  private void remove(String key) {
+    Entry removed = _entries.remove(key);
+    if (removed != null) {
+      _totalChars -= removed._response.length();
+    }
+  }
+
+  public long getHitCount() {
+    return _hits.get();
+  }
+
+  public long getMissCount() {
+    return _misses.get();
+  }
+
+  public long getEvictionCount() {
+    return _evictions.get();
+  }
+
+  public synchronized int getSize() {
+    return _entries.size();
+  }
+}
@@ -4,10 +4,22 @@ import static org.gusdb.sitesearch.service.request.SearchRequest.MAX_RECORDS_IN_
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.URL;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
 import java.net.URLEncoder;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
@@ -18,21 +30,36 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.ConnectionCallback;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.Closeable;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.ICloseType;
+import org.glassfish.grizzly.http.server.Request;
 import org.gusdb.fgputil.runtime.BuildStatus;
 import org.gusdb.fgputil.server.RESTServer;
-import org.gusdb.fgputil.solr.Solr;
-import org.gusdb.fgputil.solr.SolrResponse;
 import org.gusdb.fgputil.web.MimeTypes;
+import org.gusdb.sitesearch.service.SolrCalls.SearchExport;
 import org.gusdb.sitesearch.service.exception.InvalidRequestException;
+import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
+import org.gusdb.sitesearch.service.metadata.FacetCounts;
 import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.metrics.Metrics;
+import org.gusdb.sitesearch.service.metrics.MetricsText;
+import org.gusdb.sitesearch.service.request.HighlightMode;
 import org.gusdb.sitesearch.service.request.SearchRequest;
 import org.gusdb.sitesearch.service.server.Server.Context;
+import org.gusdb.sitesearch.service.solr.SolrClient;
+import org.gusdb.sitesearch.service.solr.SolrSearchResponse;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -42,35 +69,134 @@ public class Service {
 
   private static final Logger LOG = LogManager.getLogger(Service.class);
 
-  private static Solr getSolr() {
-    var ctx = RESTServer.getApplicationContext();
-    return new Solr(joinUrl((String)ctx.get(Context.SOLR_URL), (String)ctx.get(Context.SOLR_CORE)));
+  // coalesce identical in-flight requests
+  private static final SingleFlight<SharedResult> SEARCH_FLIGHTS = new SingleFlight<>();
+  private static final SingleFlight<SharedResult> SUGGEST_FLIGHTS = new SingleFlight<>();
+
+  // underlying container request, whose connection reveals client disconnects
+  @javax.ws.rs.core.Context
+  private Request _containerRequest;
+
+  private static SolrClient getSolr() {
+    return (SolrClient)RESTServer.getApplicationContext().get(Context.SOLR_CLIENT);
+  }
+
+  private static ExecutorService getExportExecutor() {
+    return (ExecutorService)RESTServer.getApplicationContext().get(Context.EXPORT_EXECUTOR);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Set<String> getExportHandlerDocTypes() {
+    return (Set<String>)RESTServer.getApplicationContext().get(Context.SOLR_EXPORT_HANDLER_DOC_TYPES);
+  }
+
+  private static SearchResponseCache getSearchResponseCache() {
+    return (SearchResponseCache)RESTServer.getApplicationContext().get(Context.SEARCH_RESPONSE_CACHE);
+  }
+
+  private static Deadline startDeadline(String timeoutKey) {
+    return Deadline.after((Duration)RESTServer.getApplicationContext().get(timeoutKey));
+  }
+
+  private static AdmissionLane getLane(String lane) {
+    return (AdmissionLane)RESTServer.getApplicationContext().get(lane);
+  }
+
+  private static MetadataCache getMetadataCache() {
+    return (MetadataCache)RESTServer.getApplicationContext().get(Context.METADATA_CACHE);
+  }
+
+  private static Metadata getMetadata(SolrClient solr) {
+    return getMetadataCache().getMetadata(solr);
+  }
+
+  private static CompletableFuture<Metadata> getMetadataAsync(SolrClient solr) {
+    return getMetadataCache().getMetadataAsync(solr);
+  }
+
+  /**
+   * Resumes the suspended request with the eventual response (or exception),
+   * cancelling the deadline if the client disconnects first, so that no
+   * further SOLR calls are started on behalf of an abandoned request (e.g.
+   * once it is admitted) and it stops waiting on those in progress.  The
+   * disconnect is detected on the container's connection, since Jersey's
+   * ConnectionCallback is only called once writing the response has failed.
+   * SOLR calls already sent run to completion (the Java 11 HTTP client cannot
+   * abort them), bounded by timeAllowed.
+   */
+  private void resume(AsyncResponse asyncResponse, Deadline deadline, Supplier<CompletableFuture<Response>> responseSupplier) {
+    Connection<?> connection = _containerRequest.getContext().getConnection();
+    CloseListener<Closeable,ICloseType> onClose = (closeable, type) -> deadline.cancel();
+    connection.addCloseListener(onClose);
+    resume(asyncResponse, () -> {
+      CompletableFuture<Response> response;
+      try {
+        response = responseSupplier.get();
+      }
+      catch (RuntimeException e) {
+        response = CompletableFuture.failedFuture(e);
+      }
+      // connections are reused by later requests, which must not cancel this one's deadline
+      return response.whenComplete((value, e) -> connection.removeCloseListener(onClose));
+    });
+  }
+
+  /**
+   * Resumes the suspended request with the eventual response (or exception),
+   * so no service thread is held while waiting on SOLR.
+   */
+  private static void resume(AsyncResponse asyncResponse, Supplier<CompletableFuture<Response>> responseSupplier) {
+    CompletableFuture<Response> response;
+    try {
+      response = responseSupplier.get();
+    }
+    catch (RuntimeException e) {
+      response = CompletableFuture.failedFuture(e);
+    }
+    response.whenComplete((value, e) -> {
+      if (e == null) asyncResponse.resume(value);
+      else asyncResponse.resume(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+    });
   }
 
   @GET
   @Produces(MediaType.APPLICATION_JSON)
-  public Response runSearch(
+  public void runSearch(
       @QueryParam("searchText") @DefaultValue("*") String searchText,
       @QueryParam("offset") @DefaultValue("0") int offset,
       @QueryParam("numRecords") @DefaultValue("20") int numRecords,
       @QueryParam("projectId") String projectId,
-      @QueryParam("docType") String docType) {
-    return handleSearchRequest(getSolr(), new SearchRequest(searchText,
-        offset, numRecords, Optional.ofNullable(docType), Optional.ofNullable(projectId)));
+      @QueryParam("docType") String docType,
+      @QueryParam("highlight") @DefaultValue("snippets") String highlight,
+      @QueryParam("pretty") @DefaultValue("false") boolean pretty,
+      @QueryParam("debug") String debug,
+      @Suspended AsyncResponse asyncResponse) {
+    Deadline deadline = startDeadline(Context.SEARCH_TIMEOUT_SECS);
+    resume(asyncResponse, deadline, () -> getLane(Context.SEARCH_LANE).run(() ->
+        handleSearchRequest(getSolr(), new SearchRequest(searchText,
+            offset, numRecords, Optional.ofNullable(docType), Optional.ofNullable(projectId),
+            HighlightMode.fromValue(highlight)), pretty, deadline, RequestTrace.forDebugParam(debug))));
   }
 
   @POST
   @Consumes(MediaType.APPLICATION_JSON)
   @Produces(MediaType.APPLICATION_JSON)
-  public Response runSearch(String body) {
-    return handleSearchRequest(getSolr(), new SearchRequest(new JSONObject(body), true, false, false));
+  public void runSearch(String body,
+      @QueryParam("pretty") @DefaultValue("false") boolean pretty,
+      @QueryParam("debug") String debug,
+      @Suspended AsyncResponse asyncResponse) {
+    Deadline deadline = startDeadline(Context.SEARCH_TIMEOUT_SECS);
+    resume(asyncResponse, deadline, () -> getLane(Context.SEARCH_LANE).run(() ->
+        handleSearchRequest(getSolr(), new SearchRequest(new JSONObject(body), true, false, false),
+            pretty, deadline, RequestTrace.forDebugParam(debug))));
   }
 
   @POST
   @Consumes(MediaType.APPLICATION_JSON)
   @Produces(MimeTypes.ND_JSON)
-  public Response getStreamingResults(String body) {
-    return handleStreamRequest(getSolr(), new SearchRequest(new JSONObject(body), false, true, false));
+  public void getStreamingResults(String body, @Suspended AsyncResponse asyncResponse) {
+    resume(asyncResponse, () -> handleStreamRequest(getSolr(),
+        new SearchRequest(new JSONObject(body), false, true, false), asyncResponse));
   }
 
   /**
@@ -98,21 +224,48 @@ public class Service {
   @GET
   @Path("/suggest")
   @Produces(MediaType.APPLICATION_JSON)
-  public Response getSuggestions(@QueryParam("searchText") String searchText) {
+  public void getSuggestions(@QueryParam("searchText") String searchText, @Suspended AsyncResponse asyncResponse) {
     // Return an empty list for requests that contain no search text or a search
     // term that is fewer than 3 characters.
-    if (searchText == null || searchText.isBlank() || searchText.trim().length() < 3)
-      return Response.ok("[]", MediaType.APPLICATION_JSON_TYPE).build();
+    if (searchText == null || searchText.isBlank() || searchText.trim().length() < 3) {
+      asyncResponse.resume(Response.ok("[]", MediaType.APPLICATION_JSON_TYPE).build());
+      return;
+    }
 
-    // Build the SOLR request URL
-    var url = (String) RESTServer.getApplicationContext().get(Context.SOLR_URL);
-    var ep = joinUrl(url, RESTServer.getApplicationContext().get(Context.SOLR_CORE) + "/suggest");
-    var q = ep + "?suggest.q=" + URLEncoder.encode(searchText, Charset.defaultCharset());
+    // identical concurrent suggest requests share a single SOLR call, bound by the
+    // first request's deadline; the others wait for it only as long as their own allow
+    Deadline deadline = startDeadline(Context.SUGGEST_TIMEOUT_SECS);
+    RequestTrace trace = RequestTrace.start();
+    resume(asyncResponse, deadline, () -> getLane(Context.SUGGEST_LANE).run(() ->
+        awaitShared(SUGGEST_FLIGHTS, searchText, deadline, "suggestions", () ->
+          getSuggestionsJson(searchText, deadline.detach())))
+      .thenApply(result -> {
+        trace.addTimings(result._trace);
+        Metrics.RESPONSE_SIZE_CHARS.observe("suggest", result._json.length());
+        return Response.ok(result._json, MediaType.APPLICATION_JSON_TYPE)
+          .header(RequestTrace.SERVER_TIMING_HEADER, trace.getServerTimingHeader())
+          .build();
+      }));
+  }
+
+  private static CompletableFuture<SharedResult> getSuggestionsJson(String searchText, Deadline deadline) {
+    RequestTrace trace = RequestTrace.start();
+    // Build the SOLR request path
+    var q = "suggest?suggest.q=" + URLEncoder.encode(searchText, StandardCharsets.UTF_8);
+
+    long start = System.nanoTime();
+    return Metrics.timeSolrCallAsync("suggest", () ->
+      getSolr().executeCoreRequestAsync(q, deadline.checkRemaining("suggest"), stream ->
+        new String(stream.readAllBytes(), StandardCharsets.UTF_8)))
+      .thenApply(solrResponse -> new SharedResult(toSuggestionsJson(solrResponse, qTime ->
+        trace.addSolrCall("suggest", getSolr().getCoreUrl() + q, start, qTime)), false, trace));
+  }
 
-    // Open the connection to SOLR
-    try(var stream = new URL(q).openConnection().getInputStream()) {
+  private static String toSuggestionsJson(String solrResponse, IntConsumer qTimeReceiver) {
+    try {
       // Parse the response
-      var node = new JSONObject(new String(stream.readAllBytes()));
+      var node = new JSONObject(solrResponse);
+      qTimeReceiver.accept(SolrSearchResponse.getQTime(node));
 
       node = node.getJSONObject("suggest")
         .getJSONObject("default");
@@ -125,7 +278,7 @@ public class Service {
       node = node.getJSONObject(node.keys().next());
 
       if (node.getInt("numFound") < 1)
-        return Response.ok("[]", MediaType.APPLICATION_JSON_TYPE).build();
+        return "[]";
 
       var suggestions = node.getJSONArray("suggestions");
       var out = new JSONArray(suggestions.length());
@@ -134,10 +287,7 @@ public class Service {
         out.put(suggestions.getJSONObject(i).getString("term"));
       }
 
-      return Response.ok(out.toString(), MediaType.APPLICATION_JSON_TYPE).build();
-    } catch (IOException e) {
-      LOG.error("failed to connect to SOLR: ", e);
-      throw new InternalServerErrorException("failed to connect to SOLR");
+      return out.toString();
     } catch (JSONException e) {
       LOG.error("could not parse JSON response from SOLR", e);
       throw new InternalServerErrorException("could not parse JSON response from SOLR: " + e.getMessage());
@@ -147,15 +297,56 @@ public class Service {
   @GET
   @Path("/categories-metadata")
   @Produces(MediaType.APPLICATION_JSON)
-  public Response getCategoriesJson(@QueryParam("projectId") String projectId) {
+  public void getCategoriesJson(
+      @QueryParam("projectId") String projectId,
+      @QueryParam("pretty") @DefaultValue("false") boolean pretty,
+      @Suspended AsyncResponse asyncResponse) {
     LOG.info("Request received for categories metadata");
-    Metadata meta = SolrCalls.initializeMetadata(getSolr());
-    return Response.ok(
-      new JSONObject()
-        .put("categories", meta.getCategoriesJson())
-        .put("documentTypes", meta.getDocumentTypesJson(Optional.ofNullable(projectId)))
-        .toString(2)
-    ).build();
+    resume(asyncResponse, () -> getLane(Context.METADATA_LANE).run(() -> getMetadataAsync(getSolr())).thenApply(meta -> {
+      String json = JsonOutput.toJsonString(pretty, gen -> {
+        gen.writeStartObject();
+        gen.writeFieldName("categories");
+        meta.writeCategoriesJson(gen);
+        gen.writeFieldName("documentTypes");
+        meta.writeDocumentTypesJson(gen, Optional.ofNullable(projectId));
+        gen.writeEndObject();
+      });
+      Metrics.RESPONSE_SIZE_CHARS.observe("categories-metadata", json.length());
+      return Response.ok(json).build();
+    }));
+  }
+
+  @GET
+  @Path("/metrics")
+  @Produces(MetricsText.CONTENT_TYPE)
+  public Response getMetrics() {
+    StringBuilder out = new StringBuilder();
+    Metrics.write(out);
+
+    SearchResponseCache cache = getSearchResponseCache();
+    MetricsText.writeValue(out, "sitesearch_search_cache_hits_total", "Search responses served from cache", "counter", cache.getHitCount());
+    MetricsText.writeValue(out, "sitesearch_search_cache_misses_total", "Search responses not found in cache", "counter", cache.getMissCount());
+    MetricsText.writeValue(out, "sitesearch_search_cache_evictions_total", "Search responses evicted from cache", "counter", cache.getEvictionCount());
+    MetricsText.writeValue(out, "sitesearch_search_cache_entries", "Search responses currently cached", "gauge", cache.getSize());
+
+    Map<String,Integer> active = new LinkedHashMap<>(), queued = new LinkedHashMap<>();
+    for (String laneKey : List.of(Context.SEARCH_LANE, Context.SUGGEST_LANE, Context.EXPORT_LANE, Context.METADATA_LANE)) {
+      AdmissionLane lane = getLane(laneKey);
+      active.put(lane.getName(), lane.getActiveCount());
+      queued.put(lane.getName(), lane.getQueuedCount());
+    }
+    MetricsText.writeValues(out, "sitesearch_lane_active_requests", "Requests being processed, by admission lane", "gauge", "lane", active);
+    MetricsText.writeValues(out, "sitesearch_lane_queued_requests", "Requests waiting for admission, by admission lane", "gauge", "lane", queued);
+
+    SolrClient solr = getSolr();
+    MetricsText.writeValue(out, "sitesearch_solr_connections_in_use", "Connections to SOLR currently in use", "gauge", solr.getConnectionsInUse());
+    MetricsText.writeValue(out, "sitesearch_solr_connection_waiters", "Requests waiting for a connection to SOLR", "gauge", solr.getConnectionWaiterCount());
+
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    MetricsText.writeValue(out, "sitesearch_jvm_heap_used_bytes", "Heap memory in use", "gauge", heap.getUsed());
+    MetricsText.writeValue(out, "sitesearch_jvm_heap_committed_bytes", "Heap memory committed by the JVM", "gauge", heap.getCommitted());
+
+    return Response.ok(out.toString()).build();
   }
 
   @GET
@@ -169,77 +360,181 @@ public class Service {
   @Path("/cores")
   @Produces(MediaType.APPLICATION_JSON)
   public Response getCoresInfo() {
-    var url = (String) RESTServer.getApplicationContext().get(Context.SOLR_URL);
-    var ep = joinUrl(url, "admin/cores");
-    try(var stream = new URL(ep).openConnection().getInputStream()) {
-      return Response.ok(new String(stream.readAllBytes())).build();
-    } catch (IOException e) {
+    try {
+      return Response.ok(getSolr().executeRequest("admin/cores", stream ->
+        new String(stream.readAllBytes(), StandardCharsets.UTF_8))).build();
+    }
+    catch (SiteSearchRuntimeException e) {
       LOG.error("failed to connect to SOLR: ", e);
       throw new InternalServerErrorException("failed to connect to SOLR");
     }
   }
 
-  private static Response handleSearchRequest(Solr solr, SearchRequest request) {
-
-    // initialize metadata (2 SOLR calls for docTypes and fields)
-    Metadata meta = SolrCalls.initializeMetadata(solr);
-    meta.validateRequest(request);
+  /**
+   * Result of a SOLR-backed operation which may be shared by identical
+   * concurrent requests, with the timings recorded while producing it
+   */
+  private static class SharedResult {
 
-    // get response with all filters in request applied (will produce results to deliver)
-    boolean fieldFacetsRequested = request.hasDocTypeFilter();
-    SolrResponse searchResults = SolrCalls.getSearchResponse(solr, request, meta, false, true, true, fieldFacetsRequested);
+    private final String _json;
+    private final boolean _partial;
+    private final RequestTrace _trace;
 
-    // apply facets
-    meta.applyDocTypeFacetCounts(searchResults.getFacetCounts());
-    meta.setOrganismFacetCounts(request.getRestrictMetadataToOrganisms(), searchResults.getFacetCounts());
-    if (fieldFacetsRequested) {
-      meta.setFieldFacetCounts(request.getDocTypeFilter(), searchResults.getFacetQueryResults());
+    private SharedResult(String json, boolean partial, RequestTrace trace) {
+      _json = json;
+      _partial = partial;
+      _trace = trace;
     }
+  }
 
-    // At this point:
-    //  - doc type facets are correct because: if doc type filter applied, we only need a count for that type
-    //  - organism facets are wrong if org filter present; recalculate with org filter off
-    //  - field facets are wrong if field filter present; recalculate with field filter off
-
-    if (request.hasOrganismFilter()) {
-      // need another call; one without organism filter applied to get org facets
-      SolrResponse facetResponse = SolrCalls.getSearchResponse(solr, request, meta, true, false, true, false);
-      meta.setOrganismFacetCounts(request.getRestrictMetadataToOrganisms(), facetResponse.getFacetCounts());
-    }
+  /**
+   * Starts the shared operation with the passed key, or joins one in flight.
+   * The request starting the operation binds it to its own deadline (detached,
+   * so its disconnection does not fail the others), so SOLR's time limits
+   * account for the time it has already spent; requests joining it wait only
+   * as long as their own deadlines allow.
+   */
+  private static CompletableFuture<SharedResult> awaitShared(SingleFlight<SharedResult> flights, String key,
+      Deadline deadline, String operation, Supplier<CompletableFuture<SharedResult>> sharedOperation) {
+    AtomicBoolean started = new AtomicBoolean(false);
+    CompletableFuture<SharedResult> result = flights.execute(key, () -> {
+      started.set(true);
+      return sharedOperation.get();
+    });
+    return started.get() ? result : deadline.await(result, operation);
+  }
 
-    if (request.hasDocTypeFilterAndFields()) {
-      // need another call; one without fields filtering applied to get field facets
-      SolrResponse facetResponse = SolrCalls.getSearchResponse(solr, request, meta, true, true, false, true);
-      meta.setFieldFacetCounts(request.getDocTypeFilter(), facetResponse.getFacetQueryResults());
-    }
+  /**
+   * Produces the search response, from the cache if possible.  Identical
+   * concurrent searches share a single SOLR call (see awaitShared).  A request
+   * which joined a search that came back partial (i.e. ran out of the first
+   * request's time) tries again with its own deadline; such retries are also
+   * shared.  Debug requests bypass the cache and are never coalesced, since
+   * their responses describe their own SOLR calls.
+   */
+  private static CompletableFuture<Response> handleSearchRequest(SolrClient solr, SearchRequest request,
+      boolean pretty, Deadline deadline, RequestTrace trace) {
 
-    return Response.ok(ResultsFormatter.formatResults(meta, searchResults, request.getRestrictToProject()).toString(2)).build();
-  }
+    // get metadata (SOLR calls for docTypes and fields only if cache is stale)
+    long metadataStart = System.nanoTime();
+    return getMetadataAsync(solr).thenCompose(meta -> {
+      trace.addPhase("metadata", metadataStart);
+      meta.validateRequest(request);
 
-  private static Response handleStreamRequest(Solr solr, SearchRequest request) {
+      if (trace.isDebug()) {
+        return runSearch(solr, request, meta, pretty, Optional.empty(), deadline, trace).thenApply(result -> result._json);
+      }
 
-    // initialize metadata (2 SOLR calls for docTypes and fields)
-    Metadata meta = SolrCalls.initializeMetadata(solr);
-    meta.validateRequest(request);
+      // return cached response if this search has been done recently against the same index
+      String cacheKey = request.getCacheKey() + (pretty ? "|pretty" : "");
+      Optional<String> cachedResponse = getSearchResponseCache().get(meta, cacheKey);
+      if (cachedResponse.isPresent()) {
+        trace.addEvent("cache", "hit");
+        return CompletableFuture.completedFuture(cachedResponse.get());
+      }
 
-    // get stats on this search to test result size against max
-    int resultCount = SolrCalls.getSearchResponse(solr, request, meta, true, true, true, false).getTotalCount();
+      Supplier<CompletableFuture<SharedResult>> sharedSearch = () -> runSearch(solr, request, meta, pretty,
+          Optional.of(cacheKey), deadline.detach(), RequestTrace.start());
+      AtomicBoolean ranSharedSearch = new AtomicBoolean(false);
+      return awaitShared(SEARCH_FLIGHTS, cacheKey, deadline, "search", () -> {
+        ranSharedSearch.set(true);
+        return sharedSearch.get();
+      }).thenCompose(result -> {
+        if (!result._partial || ranSharedSearch.get()) {
+          return CompletableFuture.completedFuture(result);
+        }
+        // joined a search which ran out of the first request's time; retry with this request's own
+        return awaitShared(SEARCH_FLIGHTS, cacheKey + "|retry", deadline, "search", sharedSearch);
+      }).thenApply(result -> {
+        trace.addTimings(result._trace);
+        return result._json;
+      });
+    }).thenApply(response -> {
+      Metrics.RESPONSE_SIZE_CHARS.observe("search", response.length());
+      return Response.ok(response)
+        .header(RequestTrace.SERVER_TIMING_HEADER, trace.getServerTimingHeader())
+        .build();
+    });
+  }
 
-    // make sure the resulting document count is not higher than the max
-    if (resultCount > MAX_RECORDS_IN_TABULAR_RESPONSE) {
-      throw new InvalidRequestException("Search result contains " + resultCount + " records, exceeding the maximum allowed (" + MAX_RECORDS_IN_TABULAR_RESPONSE + ").");
-    }
+  /**
+   * Runs a search and formats its results, caching them under the passed key
+   * (if any) unless partial (SOLR ran out of time)
+   */
+  private static CompletableFuture<SharedResult> runSearch(SolrClient solr, SearchRequest request,
+      Metadata meta, boolean pretty, Optional<String> cacheKey, Deadline deadline, RequestTrace trace) {
 
-    return Response.ok(new StreamingOutput() {
-      @Override
-      public void write(OutputStream output) throws IOException, WebApplicationException {
-        // make the search request and stream primary keys to the client
-        SolrCalls.writeSearchResponse(solr, request, meta, output);
+    // get response with all filters in request applied (will produce results to deliver);
+    // facets are collected in the same call with organism and field filters excluded as needed
+    boolean fieldFacetsRequested = request.hasDocTypeFilter();
+    return SolrCalls.getSearchResponse(solr, request, meta, false, fieldFacetsRequested, deadline, trace).thenApply(searchResults -> {
+
+      // apply facets
+      long facetsStart = System.nanoTime();
+      FacetCounts facets = new FacetCounts();
+      facets.setDocTypeFacetCounts(searchResults.getFacetCounts());
+      facets.setOrganismFacetCounts(request.getRestrictMetadataToOrganisms(), searchResults.getFacetCounts());
+      if (fieldFacetsRequested) {
+        facets.setFieldFacetCounts(request.getDocTypeFilter(), searchResults.getFacetQueryResults());
+      }
+      trace.addPhase("facets", facetsStart);
+
+      long formatStart = System.nanoTime();
+      String formatted = JsonOutput.toJsonString(pretty, gen -> ResultsFormatter.writeResults(gen, meta, facets,
+          searchResults, request.getRestrictToProject(), request.getHighlightMode(),
+          trace.isDebug() ? Optional.of(trace) : Optional.empty()));
+      trace.addPhase("format", formatStart);
+      if (cacheKey.isPresent() && !searchResults.isPartialResults()) {
+        getSearchResponseCache().put(meta, cacheKey.get(), formatted);
       }
-    }).build();
+      return new SharedResult(formatted, searchResults.isPartialResults(), trace);
+    });
   }
 
-  private static String joinUrl(String seg1, String seg2) {
-    return (seg1.endsWith("/")) ? seg1 + seg2 : seg1 + "/" + seg2;
+  private static CompletableFuture<Response> handleStreamRequest(SolrClient solr, SearchRequest request, AsyncResponse asyncResponse) {
+
+    // exports hold a lane permit until streaming is complete; the permit is
+    // also released if the response is never written (e.g. the client disconnects)
+    return getLane(Context.EXPORT_LANE).admit().thenApply(release -> {
+      asyncResponse.register((ConnectionCallback)disconnected -> release.run());
+      asyncResponse.register((CompletionCallback)throwable -> release.run());
+      try {
+
+        // get metadata (SOLR calls for docTypes and fields only if cache is stale)
+        Metadata meta = getMetadata(solr);
+        meta.validateRequest(request);
+
+        // begin the export (fetching the first page or a count) to get the result count
+        long startExport = System.nanoTime();
+        SearchExport export = SolrCalls.startSearchExport(solr, request, meta, getExportHandlerDocTypes());
+        Metrics.PHASE_SECONDS.observeSince("start_export", startExport);
+
+        // make sure the resulting document count is not higher than the max
+        int resultCount = export.getTotalCount();
+        if (resultCount > MAX_RECORDS_IN_TABULAR_RESPONSE) {
+          throw new InvalidRequestException("Search result contains " + resultCount + " records, exceeding the maximum allowed (" + MAX_RECORDS_IN_TABULAR_RESPONSE + ").");
+        }
+
+        return Response.ok(new StreamingOutput() {
+          @Override
+          public void write(OutputStream output) throws IOException, WebApplicationException {
+            try {
+              // stream primary keys of all results to the client
+              long start = System.nanoTime();
+              export.write(output, getExportExecutor());
+              Metrics.EXPORT_SECONDS.observeSince(start);
+              Metrics.EXPORT_ROWS.observe(resultCount);
+            }
+            finally {
+              release.run();
+            }
+          }
+        }).build();
+      }
+      catch (RuntimeException e) {
+        release.run();
+        throw e;
+      }
+    });
   }
 }
@@ -0,0 +1,47 @@
+package org.gusdb.sitesearch.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent operations.  The first caller with a given
+ * key starts the operation; callers arriving with the same key while it is in
+ * flight share its result (or exception) instead of repeating the work.
+ * Nothing is retained once the operation completes.
+ *
+ * @param <T> type of operation result
+ */
+public class SingleFlight<T> {
+
+  private final ConcurrentHashMap<String,CompletableFuture<T>> _inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Starts the operation, or joins an identical one already in flight.
+   *
+   * @param key key identifying the operation
+   * @param operation starts the operation if none with this key is in flight
+   * @return future result of the operation
+   */
+  public CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> operation) {
+    CompletableFuture<T> shared = new CompletableFuture<>();
+    CompletableFuture<T> existing = _inFlight.putIfAbsent(key, shared);
+    if (existing != null) {
+      // copy so one caller's cancellation does not affect the others
+      return existing.copy();
+    }
+    CompletableFuture<T> result;
+    try {
+      result = operation.get();
+    }
+    catch (RuntimeException | Error e) {
+      result = CompletableFuture.failedFuture(e);
+    }
+    result.whenComplete((value, e) -> {
+      _inFlight.remove(key, shared);
+      if (e == null) shared.complete(value);
+      else shared.completeExceptionally(e);
+    });
+    return shared.copy();
+  }
+}
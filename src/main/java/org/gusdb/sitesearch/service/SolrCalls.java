@@ -6,21 +6,37 @@ import static org.gusdb.fgputil.FormatUtil.urlEncodeUtf8;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import org.gusdb.fgputil.Tuples.TwoTuple;
-import org.gusdb.fgputil.solr.Solr;
 import org.gusdb.fgputil.solr.Solr.HttpMethod;
-import org.gusdb.fgputil.solr.SolrResponse;
-import org.gusdb.sitesearch.service.metadata.DocumentField;
+import org.gusdb.sitesearch.service.ExportPipeline.OutputProducer;
+import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
 import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.metadata.SearchPlan;
+import org.gusdb.sitesearch.service.metrics.Metrics;
+import org.gusdb.sitesearch.service.request.HighlightMode;
 import org.gusdb.sitesearch.service.request.Pagination;
 import org.gusdb.sitesearch.service.request.SearchRequest;
+import org.gusdb.sitesearch.service.solr.ExportPageParser;
+import org.gusdb.sitesearch.service.solr.ExportPageParser.ExportPage;
+import org.gusdb.sitesearch.service.solr.SolrClient;
+import org.gusdb.sitesearch.service.solr.SolrResponseFormat;
+import org.gusdb.sitesearch.service.solr.SolrSearchResponse;
 import org.json.JSONObject;
 
 public class SolrCalls {
@@ -36,6 +52,11 @@ public class SolrCalls {
   public static final String HYPERLINK_NAME_FIELD = "hyperlinkName";
   public static final String JSON_BLOB_FIELD = "json-blob";
 
+  // fields read from every document when formatting search results
+  public static final List<String> FIXED_RETURN_FIELDS = List.of(
+      ID_FIELD, DOCUMENT_TYPE_FIELD, PRIMARY_KEY_FIELD, PROJECT_FIELD, ORGANISM_FIELD,
+      SCORE_FIELD, WDK_PRIMARY_KEY_FIELD, HYPERLINK_NAME_FIELD);
+
   // hard-coded doc types
   public static final String CATEGORIES_META_DOCTYPE = "document-categories";
   public static final String FIELDS_META_DOCTYPE = "document-fields";
@@ -43,9 +64,31 @@ public class SolrCalls {
 
   // tuning constants
   private static final int FETCH_SIZE_FROM_SOLR = 10000;
+  private static final int EXPORT_CHUNK_SIZE = 64 * 1024; // chars
+  private static final int EXPORT_MAX_QUEUED_CHUNKS = 16; // roughly two pages of export rows
+  private static final int MAX_BATCH_META_DOCS = 1000;
+  private static final Duration SOLR_RESPONSE_GRACE_PERIOD = Duration.ofSeconds(1);
 
   // search constants
   private static final String SORTING_FIELDS = SCORE_FIELD + " desc, " + ID_FIELD + " asc";
+  private static final String INITIAL_CURSOR_MARK = "*";
+
+  // /export handler constants; sort and returned fields must have docValues
+  private static final String EXPORT_HANDLER = "export";
+  private static final String EXPORT_SORTING_FIELDS = ID_FIELD + " asc";
+  private static final double WILDCARD_SCORE = 1.0;
+
+  // tags and param references used to exclude filters when collecting facets
+  // NOTE: SOLR ignores local params in q when defType=edismax, so edismax is chosen via local params instead
+  private static final String SEARCH_QUERY_TAG = "searchQuery";
+  private static final String ORGANISM_FILTER_TAG = "orgFilter";
+  private static final String SEARCH_TEXT_PARAM = "searchText";
+  private static final String ALL_FIELDS_SEARCH_TEXT_PARAM = "allFieldsSearchText";
+  private static final String ALL_FIELDS_QF_PARAM = "allFieldsQf";
+  private static final String SEARCH_QUERY =
+      "{!edismax tag=" + SEARCH_QUERY_TAG + " v=$" + SEARCH_TEXT_PARAM + "}";
+  private static final String ALL_FIELDS_QUERY =
+      "_query_:\"{!edismax qf=$" + ALL_FIELDS_QF_PARAM + " v=$" + ALL_FIELDS_SEARCH_TEXT_PARAM + "}\"";
 
   // template for metadata document requests
   private static final Function<String,String> METADOC_REQUEST = docType ->
@@ -55,95 +98,210 @@ public class SolrCalls {
   private static final String CATAGORIES_METADOC_REQUEST = METADOC_REQUEST.apply(CATEGORIES_META_DOCTYPE);
   private static final String FIELDS_METADOC_REQUEST = METADOC_REQUEST.apply(FIELDS_META_DOCTYPE);
 
+  // batch documents are replaced whenever a new batch is loaded; used to detect metadata changes
+  private static final String BATCH_METADOC_REQUEST =
+    "q=*&fq=" + DOCUMENT_TYPE_FIELD + ":(" + BATCH_META_DOCTYPE + ")&fl=*" +
+    "&sort=" + urlEncodeUtf8(ID_FIELD + " asc") + "&rows=" + MAX_BATCH_META_DOCS + "&wt=json";
+
+  // index version changes with every commit to the core (and with core reloads)
+  private static final String INDEX_VERSION_REQUEST = "admin/luke?show=index&numTerms=0&wt=json";
+
   /**
-   * Loads basic metadata (but not facet counts) using two SOLR searches which return:
+   * Loads basic metadata (but not facet counts) using two concurrent SOLR searches which return:
    * 1. a single categories/documentTypes JSON document, defining doc types and their categories
    * 2. a single documentType fields JSON document, defining fields for each doc type
    * 
-   * @return initial metadata object
+   * @param solr shared SOLR client
+   * @param executor executor on which to run the categories search
+   * @param version metadata version read before the documents
+   * @param loadSequence number increasing with each load
+   * @return immutable metadata object
    */
-  public static Metadata initializeMetadata(Solr solr) {
-    // initialize metadata object with categories and document data
-    Metadata meta = solr.executeQuery(HttpMethod.GET, CATAGORIES_METADOC_REQUEST, true, response -> {
-      SolrResponse result = Solr.parseResponse(CATAGORIES_METADOC_REQUEST, response);
-      return new Metadata(result);
-    });
-    // supplement doc types with the fields in those doc types
-    return solr.executeQuery(HttpMethod.GET, FIELDS_METADOC_REQUEST, true, response -> {
-      SolrResponse result = Solr.parseResponse(FIELDS_METADOC_REQUEST, response);
-      return meta.addFieldData(result);
-    });
+  public static Metadata initializeMetadata(SolrClient solr, ExecutorService executor, String version, long loadSequence) {
+    Future<SolrSearchResponse> categories = executor.submit(() -> Metrics.timeSolrCall("categories_metadata", () ->
+      solr.executeQuery(HttpMethod.GET, CATAGORIES_METADOC_REQUEST, SolrSearchResponse::parse)));
+    SolrSearchResponse fields = Metrics.timeSolrCall("fields_metadata", () ->
+      solr.executeQuery(HttpMethod.GET, FIELDS_METADOC_REQUEST, SolrSearchResponse::parse));
+    return new Metadata(getResult(categories), fields, version, loadSequence);
+  }
+
+  /**
+   * Builds a string which changes whenever the metadata documents in the core
+   * may have changed.  It is composed of the core's index version (which changes
+   * on each commit or core reload) and the contents of the batch-meta documents.
+   *
+   * @param solr shared SOLR client
+   * @param executor executor on which to run the index version lookup
+   * @return metadata version string
+   */
+  public static String getMetadataVersion(SolrClient solr, ExecutorService executor) {
+    Future<String> indexVersion = executor.submit(() -> getIndexVersion(solr));
+    String batchDocs = Metrics.timeSolrCall("batch_metadata", () ->
+      solr.executeQuery(HttpMethod.GET, BATCH_METADOC_REQUEST, response ->
+        SolrSearchResponse.parse(response).getDocuments().stream()
+          .map(JSONObject::toString)
+          .collect(Collectors.joining(","))));
+    return getResult(indexVersion) + ":" + Integer.toHexString(batchDocs.hashCode()) + ":" + batchDocs.length();
+  }
+
+  /**
+   * Waits for the result of a concurrently executed call, rethrowing any
+   * runtime exception thrown by the call itself.
+   */
+  private static <T> T getResult(Future<T> future) {
+    try {
+      return future.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)e.getCause();
+      }
+      throw new SiteSearchRuntimeException("Concurrent SOLR call failed", e.getCause());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SiteSearchRuntimeException("Interrupted while waiting for SOLR call", e);
+    }
+  }
+
+  private static String getIndexVersion(SolrClient solr) {
+    return Metrics.timeSolrCall("index_version", () ->
+      solr.executeCoreRequest(INDEX_VERSION_REQUEST, response ->
+        String.valueOf(new JSONObject(new String(response.readAllBytes(), StandardCharsets.UTF_8))
+          .getJSONObject("index").getLong("version"))));
   }
 
   /**
    * Performs a SOLR search defined by the parameters of the request object and
-   * using fields defined by the metadata object
+   * using fields defined by the metadata object.  Organism and field filters
+   * are tagged so that their facet counts can be collected with the filters
+   * excluded, allowing all results and facets to be gathered in a single call:
+   * 
+   * - doc type facets need no exclusion: if doc type filter applied, we only need a count for that type
+   * - organism facets exclude the search organism filter (but keep the metadata organism filter)
+   * - field facets exclude the field-filtered main query and apply an unfiltered one instead
    * 
-   * @param solr configured SOLR querying utility
+   * @param solr shared SOLR client
    * @param request request specified by the service caller
    * @param meta metadata object populated by "static" calls to SOLR
    * @param omitResults whether to override pagination and return zero documents
    *           Highlighting will also be turned off since it is not needed.
-   * @param applyOrganismFilter whether to apply organism filter
-   * @param applyFieldsFilter whether to apply fields filter
    * @param fieldFacetsRequested whether to include field facet counts in request
-   * @return SOLR search response
+   * @param deadline deadline of the service request; SOLR's time allowed is the time remaining
+   * @param trace trace of the service request, to which the call is added
+   * @return future SOLR search response
    */
-  public static SolrResponse getSearchResponse(Solr solr, SearchRequest request, Metadata meta,
-      boolean omitResults, boolean applyOrganismFilter, boolean applyFieldsFilter, boolean fieldFacetsRequested) {
+  public static CompletableFuture<SolrSearchResponse> getSearchResponse(SolrClient solr, SearchRequest request, Metadata meta,
+      boolean omitResults, boolean fieldFacetsRequested, Deadline deadline, RequestTrace trace) {
+
+    String filteredDocsRequest = buildSearchRequest(request, meta, omitResults, fieldFacetsRequested);
+
+    // let SOLR use the remaining budget, and give it a little longer than that to respond
+    Duration remaining = deadline.checkRemaining("search");
+    SolrResponseFormat format = solr.getResponseFormat();
+    String fullRequest = filteredDocsRequest + "&timeAllowed=" + remaining.toMillis() + "&wt=" + format.getWriterType();
+    long start = System.nanoTime();
+    return Metrics.timeSolrCallAsync("search", () -> deadline.bind(solr.executeQueryAsync(HttpMethod.POST,
+        fullRequest, remaining.plus(SOLR_RESPONSE_GRACE_PERIOD), body -> {
+          long parseStart = System.nanoTime();
+          SolrSearchResponse response = SolrSearchResponse.parse(body, format);
+          trace.addPhase("parse_solr_response", parseStart);
+          return response;
+        })))
+      .thenApply(response -> {
+        trace.addSolrCall("search", solr.getCoreUrl() + "select?" + fullRequest, start, response.getQTime());
+        return response;
+      });
+  }
 
-    // don't need any documents in result if only collecting organism facets
+  /**
+   * Builds the query string of a SOLR search for the request (excluding
+   * time allowed and response format, which vary per call).
+   *
+   * @param request request specified by the service caller
+   * @param meta metadata object
+   * @param omitResults whether to override pagination and return zero documents (and no highlighting)
+   * @param fieldFacetsRequested whether to include field facet counts in request
+   * @return URL-encoded query string
+   */
+  public static String buildSearchRequest(SearchRequest request, Metadata meta,
+      boolean omitResults, boolean fieldFacetsRequested) {
+
+    // don't need any documents in result if only collecting facets
     Pagination pagination = omitResults ? new Pagination(0,0) :
       request.getPagination().get(); // should always be present for this call; bug if not
 
     // select search fields that will be applied to this search
-    TwoTuple<List<DocumentField>,Boolean> searchFields = meta.getSearchFields(request, applyFieldsFilter);
-    String searchQueryString = getSearchQueryString(request.getSearchText(), searchFields);
-    String searchFieldsString = formatFieldsForRequest(searchFields.getFirst());
-
-    String searchFiltersParam = buildQueryFilterParams(request, applyOrganismFilter);
-    String fieldQueryFacets = buildFieldQueryFacets(request.getSearchText(), searchFields.getFirst(), fieldFacetsRequested);
-    
-    String filteredDocsRequest =
-        "q=" + urlEncodeUtf8(searchQueryString) +                      // search text
+    SearchPlan searchPlan = meta.getSearchPlan(request, true);
+    String searchQueryString = searchPlan.getSearchQueryString(request.getSearchText());
+    String searchFieldsString = searchPlan.getQueryFields();
+
+    String searchFiltersParam = buildQueryFilterParams(request);
+    String fieldQueryFacets = !fieldFacetsRequested ? "" : buildFieldQueryFacets(request, meta);
+
+    return
+        "q=" + urlEncodeUtf8(SEARCH_QUERY) +                           // tagged query, parsed by edismax
+        "&" + SEARCH_TEXT_PARAM + "=" + urlEncodeUtf8(searchQueryString) + // search text
         "&qf=" + urlEncodeUtf8(searchFieldsString) +                   // fields to search
         "&start=" + pagination.getOffset() +                           // first row to return
         "&rows=" + pagination.getNumRecords() +                        // number of documents to return
         "&facet=true" +                                                // use facets
         "&facet.limit=-1" +                                            // turn off max # of facets returned
         "&facet.field=" + DOCUMENT_TYPE_FIELD +                        // declare document-type as facet field
-        "&facet.field=" + ORGANISM_FIELD +                             // declare organism as facet field
+        "&facet.field=" + urlEncodeUtf8(                               // declare organism as facet field,
+            (request.hasOrganismFilter() ?                             //   ignoring the organism filter
+              "{!ex=" + ORGANISM_FILTER_TAG + "}" : "") +              //   if it narrows the metadata orgs
+            ORGANISM_FIELD) +
         fieldQueryFacets +                                             // special field facets
-        "&defType=edismax" +                                           // chosen query parser
-        "&fl=" + urlEncodeUtf8("* " + SCORE_FIELD) +                   // fields to return
+        "&fl=" + urlEncodeUtf8(searchPlan.getReturnFields()) +         // fields needed to format results
         "&sort=" + urlEncodeUtf8(SORTING_FIELDS) +                     // how to sort results
-        (omitResults ? "" : "&hl=true") +                              // turn on highlighting
-        (omitResults ? "" : "&hl.fl=*") +                              // highlight matches on all fields
-        (omitResults ? "" : "&hl.method=unified") +                    // chosen highlighting method
+        (omitResults ? "" : buildHighlightParams(request, searchPlan)) + // highlighting, if requested
         searchFiltersParam;                                            // filters to apply to search
-    return solr.executeQuery(HttpMethod.POST, filteredDocsRequest, true, resp -> {
-      return Solr.parseResponse(filteredDocsRequest, resp);
-    });
   }
 
-  private static String getSearchQueryString(String searchText, TwoTuple<List<DocumentField>,Boolean> searchFields) {
-    return !searchText.equals("*") ? searchText : searchFields.getSecond() ? "*:*" :
-      // special case for raw wildcard; need to explicitly search fields if field filter present
-      searchFields.getFirst().stream().map(field -> field.getName() + ":*").collect(Collectors.joining(" "));
+  /**
+   * Builds highlighting params for the request's highlight mode.  Only the
+   * fields actually searched are highlighted, and only for query terms on
+   * those fields.  If only field names are needed, snippets are reduced to the
+   * matching word.
+   */
+  private static String buildHighlightParams(SearchRequest request, SearchPlan searchPlan) {
+    HighlightMode mode = request.getHighlightMode();
+    if (mode == HighlightMode.NONE || searchPlan.getFields().isEmpty()) return "";
+    return
+        "&hl=true" +                                                   // turn on highlighting
+        "&hl.fl=" + urlEncodeUtf8(searchPlan.getHighlightFields()) +   // highlight matches on searched fields
+        "&hl.requireFieldMatch=true" +                                 // only where the field was queried
+        "&hl.method=unified" +                                         // chosen highlighting method
+        (mode != HighlightMode.FIELD_NAMES ? "" :
+          "&hl.snippets=1" +                                           // one snippet per field
+          "&hl.bs.type=WORD" +                                         //   containing only
+          "&hl.fragsize=1");                                           //   the matching word
   }
 
-  private static String buildFieldQueryFacets(String searchText, List<DocumentField> searchFields, boolean fieldQueryFacetsRequested) {
-    return !fieldQueryFacetsRequested || searchFields.isEmpty() ? "" : searchFields.stream()
-        .map(field -> "&facet.query=" + urlEncodeUtf8(field.getName() + ":(" + searchText + ")"))
+  /**
+   * Builds one facet query per searchable field of the filtered doc type, keyed
+   * by field name.  Counts are always for the unfiltered field set; if a field
+   * filter is present, the (field-filtered) main query is excluded and replaced
+   * by an unfiltered query on all the doc type's fields.
+   */
+  private static String buildFieldQueryFacets(SearchRequest request, Metadata meta) {
+    SearchPlan allFieldsPlan = meta.getSearchPlan(request, false);
+    if (allFieldsPlan.getFields().isEmpty()) return "";
+    String searchText = request.getSearchText();
+    boolean excludeFieldFilter = request.hasDocTypeFilterAndFields();
+    return (!excludeFieldFilter ? "" :
+        "&" + ALL_FIELDS_SEARCH_TEXT_PARAM + "=" + urlEncodeUtf8(allFieldsPlan.getSearchQueryString(searchText)) +
+        "&" + ALL_FIELDS_QF_PARAM + "=" + urlEncodeUtf8(allFieldsPlan.getQueryFields())) +
+      allFieldsPlan.getFields().stream()
+        .map(field -> "&facet.query=" + urlEncodeUtf8(!excludeFieldFilter
+          ? "{!key=" + field.getName() + "}" + field.getName() + ":(" + searchText + ")"
+          : "{!ex=" + SEARCH_QUERY_TAG + " key=" + field.getName() + "}" +
+            "+" + field.getName() + ":(" + searchText + ") +" + ALL_FIELDS_QUERY))
         .collect(Collectors.joining());
   }
 
-  private static String buildQueryFilterParams(SearchRequest request, boolean applyOrganismFilter) {
-    // if applyOrganismFilter is false, then still filter on orgs this request cares about (i.e. metadata orgs)
-    Optional<List<String>> organisms = applyOrganismFilter ?
-        request.getRestrictSearchToOrganisms() :
-        request.getRestrictMetadataToOrganisms();
-
+  private static String buildQueryFilterParams(SearchRequest request) {
     return
       // add always-on filter to remove metadata and batch doc types from any search results
       "&fq=" + urlEncodeUtf8("-(" + DOCUMENT_TYPE_FIELD + ":(" + CATEGORIES_META_DOCTYPE + "))") +
@@ -162,33 +320,77 @@ public class SolrCalls {
          "&fq=" + urlEncodeUtf8(DOCUMENT_TYPE_FIELD + ":(" + filter.getDocType() + ")")
       ).orElse("") +
 
-      // apply organism filter only if asked
-      // example: -(organism:[* TO *] AND -organism:("Plasmodium falciparum 3D7" OR "Plasmodium falciparum 7G8"))
-      organisms.map(orgs ->
-        "&fq=" + urlEncodeUtf8("-(" + ORGANISM_FIELD + ":[* TO *] AND -" + ORGANISM_FIELD + ":(" + getOrgFilterCondition(orgs) + "))")
+      // if organism filter present, always filter on orgs this request cares about (i.e. metadata orgs);
+      // search orgs are a subset of these so results are unaffected, but facets see this filter
+      (!request.hasOrganismFilter() ? "" : request.getRestrictMetadataToOrganisms().map(orgs ->
+        "&fq=" + urlEncodeUtf8(getOrgFilter(orgs))
+      ).orElse("")) +
+
+      // apply organism filter; if it narrows the metadata orgs, tag it so organism facets can exclude it
+      // (otherwise facets must see it, since no metadata org filter was applied)
+      // example: {!tag=orgFilter}-(organism:[* TO *] AND -organism:("Plasmodium falciparum 3D7" OR "Plasmodium falciparum 7G8"))
+      request.getRestrictSearchToOrganisms().map(orgs ->
+        "&fq=" + urlEncodeUtf8((request.hasOrganismFilter() ? "{!tag=" + ORGANISM_FILTER_TAG + "}" : "") + getOrgFilter(orgs))
       ).orElse("");
   }
 
+  private static String getOrgFilter(List<String> organisms) {
+    return "-(" + ORGANISM_FIELD + ":[* TO *] AND -" + ORGANISM_FIELD + ":(" + getOrgFilterCondition(organisms) + "))";
+  }
+
   private static String getOrgFilterCondition(List<String> organisms) {
     return organisms.stream(
         ).map(org -> "\"" + org + "\"")
         .collect(Collectors.joining(" OR "));
   }
 
-  private static String formatFieldsForRequest(List<DocumentField> fields) {
-    return fields.isEmpty() ? "" : fields.stream()
-        .map(field -> field.getName() + (field.getBoost() == 1 ? "" : ("^" + String.format("%.2f", field.getBoost()))))
-        .collect(Collectors.joining(" "));
-  }
+  /**
+   * Begins a tabular export of all documents matching the request.  If the
+   * export handler is enabled for the requested document type (i.e. its primary
+   * key is single-valued, so docValues preserve it) and relevance order is not
+   * needed (i.e. an unfiltered wildcard search, where all documents score
+   * equally), documents
+   * will be streamed from SOLR's /export handler in a single request after a
+   * cheap count query.  Otherwise the first cursor page is fetched and buffered
+   * so its total count can be checked against export limits before any output
+   * is written.
+   *
+   * @param solr shared SOLR client
+   * @param request request specified by the service caller
+   * @param meta metadata object
+   * @param exportHandlerDocTypes document types for which the /export handler may be used
+   * @return export whose total count is known
+   */
+  public static SearchExport startSearchExport(SolrClient solr, SearchRequest request, Metadata meta, Set<String> exportHandlerDocTypes) {
+    SearchPlan searchPlan = meta.getSearchPlan(request, true);
+    String searchQueryString = searchPlan.getSearchQueryString(request.getSearchText());
+    String searchFiltersParam = buildQueryFilterParams(request);
 
-  public static void writeSearchResponse(Solr solr, SearchRequest request, Metadata meta, OutputStream output) throws IOException {
-    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output));
-    String nextCursorMark = "*";
-    String lastCursorMark = null;
-    TwoTuple<List<DocumentField>,Boolean> searchFields = meta.getSearchFields(request, true);
-    String searchQueryString = getSearchQueryString(request.getSearchText(), searchFields);
-    String searchFieldsString = formatFieldsForRequest(searchFields.getFirst());
-    String searchFiltersParam = buildQueryFilterParams(request, true);
+    boolean useExportHandler = request.getDocTypeFilter()
+      .map(filter -> exportHandlerDocTypes.contains(filter.getDocType()))
+      .orElse(false);
+    if (useExportHandler && searchPlan.isAllFieldsIncluded() && request.getSearchText().equals("*")) {
+      String countRequest =
+          "q=" + urlEncodeUtf8(searchQueryString) +        // match all documents
+          "&rows=0" +                                      // count only
+          "&echoParams=none" +                             // do not echo param info
+          searchFiltersParam;                              // filters to apply to search
+      int totalCount = Metrics.timeSolrCall("export_count", () ->
+        solr.executeQuery(HttpMethod.POST, countRequest, SolrSearchResponse::parse)).getTotalCount();
+      String exportRequest =
+          "q=" + urlEncodeUtf8(searchQueryString) +        // match all documents
+          "&sort=" + urlEncodeUtf8(EXPORT_SORTING_FIELDS) + // docValues sort required by /export
+          "&fl=" + urlEncodeUtf8(PRIMARY_KEY_FIELD + "," + PROJECT_FIELD) + // docValues fields to return
+          searchFiltersParam;                              // filters to apply to search
+      return new SearchExport(totalCount, "", writer -> {
+        Metrics.timeSolrCall("export_handler", () ->
+          solr.executeQuery(EXPORT_HANDLER, HttpMethod.POST, exportRequest, body ->
+            writeExportHandlerResponse(body, writer)));
+        writer.flush();
+      });
+    }
+
+    String searchFieldsString = searchPlan.getQueryFields();
     String fieldsToReturn = PRIMARY_KEY_FIELD + " " + SCORE_FIELD + " " + PROJECT_FIELD;
     String staticPortionOfRequest =
         "q=" + urlEncodeUtf8(searchQueryString) +          // search text
@@ -198,24 +400,108 @@ public class SolrCalls {
         "&sort=" + urlEncodeUtf8(SORTING_FIELDS) +         // how to sort results
         "&fl=" + urlEncodeUtf8(fieldsToReturn) +           // fields to return
         "&echoParams=none" +                               // do not echo param info
+        "&wt=" + solr.getResponseFormat().getWriterType() + // response format
         searchFiltersParam;                                // filters to apply to search
-    while (!nextCursorMark.equals(lastCursorMark)) {
-      String requestUrl = staticPortionOfRequest + "&cursorMark=" + urlEncodeUtf8(nextCursorMark);
-      SolrResponse response = solr.executeQuery(HttpMethod.POST, requestUrl, true, resp -> {
-        return Solr.parseResponse(requestUrl, resp);
-      });
-      for (JSONObject document : response.getDocuments()) {
-        writer.write(document.getJSONArray(PRIMARY_KEY_FIELD).toString());
-        writer.write(TAB);
-        writer.write(String.valueOf(document.getDouble(SCORE_FIELD)));
-        writer.write(TAB);
-        writer.write(document.optString(PROJECT_FIELD, ""));
-        writer.write(NL);
+    StringWriter firstPageRows = new StringWriter();
+    ExportPage firstPage = fetchExportPage(solr, staticPortionOfRequest, INITIAL_CURSOR_MARK, firstPageRows);
+    return new SearchExport(firstPage.getTotalCount(), firstPageRows.toString(), writer -> {
+      String lastCursorMark = INITIAL_CURSOR_MARK;
+      String nextCursorMark = firstPage.getNextCursorMark();
+      while (!nextCursorMark.equals(lastCursorMark)) {
+        if (Thread.currentThread().isInterrupted()) {
+          // export was abandoned (e.g. client disconnected); request no more pages
+          throw new InterruptedIOException("Export cancelled");
+        }
+        ExportPage page = fetchExportPage(solr, staticPortionOfRequest, nextCursorMark, writer);
+        lastCursorMark = nextCursorMark;
+        nextCursorMark = page.getNextCursorMark();
       }
-      lastCursorMark = nextCursorMark;
-      nextCursorMark = response.getNextCursorMark().get();
+      writer.flush();
+    });
+  }
+
+  /**
+   * Tabular export of search results whose total count is known.  Writes
+   * primary keys, scores and projects of all matching documents as TSV.
+   */
+  public static class SearchExport {
+
+    private final int _totalCount;
+    private final String _bufferedRows;
+    private final OutputProducer _remainingRows;
+
+    private SearchExport(int totalCount, String bufferedRows, OutputProducer remainingRows) {
+      _totalCount = totalCount;
+      _bufferedRows = bufferedRows;
+      _remainingRows = remainingRows;
     }
-    writer.flush();
+
+    /**
+     * @return total number of documents to be exported
+     */
+    public int getTotalCount() {
+      return _totalCount;
+    }
+
+    /**
+     * Writes the export to the output stream.  Rows not yet fetched are fetched
+     * and parsed on a prefetch thread so the next page can be requested while
+     * the previous one is still being sent to the client.
+     *
+     * @param output stream to the client
+     * @param prefetchExecutor executor on which to fetch pages from SOLR
+     */
+    public void write(OutputStream output, ExecutorService prefetchExecutor) throws IOException {
+      BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output));
+      writer.write(_bufferedRows);
+      ExportPipeline.write(prefetchExecutor, _remainingRows, writer, EXPORT_CHUNK_SIZE, EXPORT_MAX_QUEUED_CHUNKS);
+    }
+  }
+
+  private static ExportPage fetchExportPage(SolrClient solr, String staticPortionOfRequest,
+      String cursorMark, Writer writer) {
+    String requestUrl = staticPortionOfRequest + "&cursorMark=" + urlEncodeUtf8(cursorMark);
+    return Metrics.timeSolrCall("export_page", () ->
+      solr.executeQuery(HttpMethod.POST, requestUrl, body ->
+        writeExportPage(body, solr.getResponseFormat(), writer)));
+  }
+
+  /**
+   * Streams each document's values directly from a SOLR cursor page to the
+   * writer as TSV rows.
+   *
+   * @param body SOLR response body
+   * @param format format of the response body
+   * @param writer receiver of TSV rows
+   * @return page summary, including the cursor mark of the next page
+   */
+  public static ExportPage writeExportPage(InputStream body, SolrResponseFormat format, Writer writer) throws IOException {
+    return ExportPageParser.parse(body, format, (primaryKey, score, project) ->
+      writeExportRow(writer, primaryKey, score, project));
+  }
+
+  /**
+   * Streams each document's values directly from a SOLR /export handler
+   * response to the writer as TSV rows, in the same format as writeExportPage.
+   *
+   * @param body SOLR /export response body
+   * @param writer receiver of TSV rows
+   * @return page summary; the next cursor mark will be null
+   * @throws SiteSearchRuntimeException if a document has a multi-valued primary key
+   */
+  public static ExportPage writeExportHandlerResponse(InputStream body, Writer writer) throws IOException {
+    return ExportPageParser.parseAll(body, (primaryKey, score, project) ->
+      // scores are not available from /export (the parser passes NaN), but are constant for this query
+      writeExportRow(writer, primaryKey, WILDCARD_SCORE, project));
+  }
+
+  private static void writeExportRow(Writer writer, String primaryKey, double score, String project) throws IOException {
+    writer.write(primaryKey);
+    writer.write(TAB);
+    writer.write(String.valueOf(score));
+    writer.write(TAB);
+    writer.write(project);
+    writer.write(NL);
   }
 
 }
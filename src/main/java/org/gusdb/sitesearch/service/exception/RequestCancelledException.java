@@ -0,0 +1,9 @@
+package org.gusdb.sitesearch.service.exception;
+
+public class RequestCancelledException extends RuntimeException {
+
+  public RequestCancelledException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,16 @@
+package org.gusdb.sitesearch.service.exception;
+
+public class ServiceBusyException extends RuntimeException {
+
+  private final int _retryAfterSecs;
+
+  public ServiceBusyException(String message, int retryAfterSecs) {
+    super(message);
+    _retryAfterSecs = retryAfterSecs;
+  }
+
+  public int getRetryAfterSecs() {
+    return _retryAfterSecs;
+  }
+
+}
@@ -1,5 +1,6 @@
 package org.gusdb.sitesearch.service.exception;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.ext.ExceptionMapper;
@@ -21,6 +22,21 @@ public class SiteSearchExceptionMapper implements ExceptionMapper<Exception> {
       return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
     }
 
+    // map overload to 503s, telling the client when to try again
+    catch (ServiceBusyException e) {
+      LOG.warn(e.getMessage());
+      return Response.status(Status.SERVICE_UNAVAILABLE)
+          .header(HttpHeaders.RETRY_AFTER, e.getRetryAfterSecs())
+          .entity(e.getMessage())
+          .build();
+    }
+
+    // client has gone away; nobody will see the response
+    catch (RequestCancelledException e) {
+      LOG.info(e.getMessage());
+      return Response.status(Status.SERVICE_UNAVAILABLE).build();
+    }
+
     catch (SolrRuntimeException | SiteSearchRuntimeException e) {
       LOG.error("Server runtime exception occurred while processing request", e);
       return Response.serverError().build();
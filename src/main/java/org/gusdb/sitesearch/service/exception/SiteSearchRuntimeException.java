@@ -6,4 +6,8 @@ public class SiteSearchRuntimeException extends RuntimeException {
     super(message);
   }
 
+  public SiteSearchRuntimeException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
 }
@@ -1,40 +1,40 @@
 package org.gusdb.sitesearch.service.metadata;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
 
-import org.json.JSONObject;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 public class Category implements Iterable<DocumentType> {
 
   private final String _name;
   private final List<DocumentType> _docTypes;
 
-  public Category(String name) {
+  public Category(String name, List<DocumentType> docTypes) {
     _name = name;
-    _docTypes = new ArrayList<>();
+    _docTypes = Collections.unmodifiableList(docTypes);
   }
 
   public String getName() {
     return _name;
   }
 
-  public Category addDocumentTypes(List<DocumentType> values) {
-    _docTypes.addAll(values);
-    return this;
-  }
-
   @Override
   public Iterator<DocumentType> iterator() {
     return _docTypes.iterator();
   }
 
-  public JSONObject toJson() {
-    return new JSONObject()
-      .put("name", _name)
-      .put("documentTypes", _docTypes.stream().map(t -> t.getId()).collect(Collectors.toList()));
+  public void writeJson(JsonGenerator gen) throws IOException {
+    gen.writeStartObject();
+    gen.writeStringField("name", _name);
+    gen.writeArrayFieldStart("documentTypes");
+    for (DocumentType docType : _docTypes) {
+      gen.writeString(docType.getId());
+    }
+    gen.writeEndArray();
+    gen.writeEndObject();
   }
 
 }
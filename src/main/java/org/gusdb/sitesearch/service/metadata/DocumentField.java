@@ -1,5 +1,6 @@
 package org.gusdb.sitesearch.service.metadata;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -8,6 +9,8 @@ import java.util.stream.Collectors;
 import org.gusdb.fgputil.json.JsonUtil;
 import org.json.JSONObject;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+
 public class DocumentField {
 
   private final String _name;
@@ -19,9 +22,14 @@ public class DocumentField {
   private final boolean _isSubtitle;
   private final double _boost;
   private final Optional<List<String>> _includeProjects;
-  private double _boostMultiplier = 1;
-
-  public DocumentField(JSONObject fieldJson) {
+  private final double _boostMultiplier;
+  private final String _queryFieldSpec;
+
+  /**
+   * @param fieldJson field definition from the fields metadata document
+   * @param boostMultiplier boost of this field's document type, applied to the field's own boost
+   */
+  public DocumentField(JSONObject fieldJson, double boostMultiplier) {
     _name = fieldJson.getString("name");
     _term = getTerm(_name);
     _displayName = fieldJson.optString("displayName", getDisplay(_term));
@@ -33,6 +41,8 @@ public class DocumentField {
     _includeProjects = Optional
       .ofNullable(fieldJson.optJSONArray("includeProjects"))
       .map(json -> Arrays.asList(JsonUtil.toStringArray(json)));
+    _boostMultiplier = boostMultiplier;
+    _queryFieldSpec = _name + (getBoost() == 1 ? "" : ("^" + String.format("%.2f", getBoost())));
   }
 
   private String getDisplay(String term) {
@@ -78,21 +88,29 @@ public class DocumentField {
     return _boost * _boostMultiplier;
   }
 
+  /**
+   * @return this field's name and boost formatted for a SOLR qf parameter
+   */
+  public String getQueryFieldSpec() {
+    return _queryFieldSpec;
+  }
+
+  public Optional<List<String>> getIncludeProjects() {
+    return _includeProjects;
+  }
+
   public boolean includeInProject(String projectId) {
     return _includeProjects
       .map(list -> list.contains(projectId))
       .orElse(true);
   }
 
-  public JSONObject toJson() {
-    return new JSONObject()
-      .put("name", _name)
-      .put("displayName", _displayName)
-      .put("term", _term)
-      .put("isSubtitle", _isSubtitle);
-  }
-
-  public void setBoostMultiplier(double d) {
-    _boostMultiplier = d;
+  public void writeJson(JsonGenerator gen) throws IOException {
+    gen.writeStartObject();
+    gen.writeStringField("name", _name);
+    gen.writeStringField("displayName", _displayName);
+    gen.writeStringField("term", _term);
+    gen.writeBooleanField("isSubtitle", _isSubtitle);
+    gen.writeEndObject();
   }
 }
@@ -1,17 +1,42 @@
 package org.gusdb.sitesearch.service.metadata;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+
 public class DocumentType {
 
+  /**
+   * Fields of this doc type available in a particular project scope
+   */
+  private static class ProjectFields {
+
+    private final List<DocumentField> _summaryFields;
+    private final List<DocumentField> _searchFields;
+    private final Set<String> _searchFieldNames;
+
+    public ProjectFields(List<DocumentField> fields, Predicate<DocumentField> inProject) {
+      _summaryFields = filter(fields, inProject.and(DocumentField::isSummary));
+      _searchFields = filter(fields, inProject.and(DocumentField::isSearchable));
+      _searchFieldNames = Collections.unmodifiableSet(_searchFields.stream()
+        .map(DocumentField::getName).collect(Collectors.toSet()));
+    }
+
+    private static List<DocumentField> filter(List<DocumentField> fields, Predicate<DocumentField> pred) {
+      return Collections.unmodifiableList(fields.stream().filter(pred).collect(Collectors.toList()));
+    }
+  }
+
   private final String _id;
   private final String _displayName;
   private final String _displayNamePlural;
@@ -20,7 +45,11 @@ public class DocumentType {
   private final Optional<String> _wdkSearchUrlName;
   private final List<DocumentField> _fields;
 
-  private Optional<Integer> _count;
+  // fields are precomputed for: no project filter, each project named in a
+  // field's includeProjects, and any other (unlisted) project
+  private final ProjectFields _allProjectsFields;
+  private final ProjectFields _unlistedProjectFields;
+  private final Map<String,ProjectFields> _listedProjectFields;
 
   public DocumentType(
       String id,
@@ -28,22 +57,27 @@ public class DocumentType {
       String displayNamePlural,
       boolean hasOrganismField,
       double boost,
-      String wdkSearchUrlName) {
+      String wdkSearchUrlName,
+      List<JSONObject> fieldDefinitions) {
     _id = id;
     _displayName = displayName;
     _displayNamePlural = displayNamePlural;
     _hasOrganismField = hasOrganismField;
     _boost = boost;
     _wdkSearchUrlName = Optional.ofNullable(wdkSearchUrlName);
-    _fields = new ArrayList<>();
-    _count = Optional.empty();
-  }
-
-  public void addFields(List<DocumentField> newFields) {
-    _fields.addAll(newFields);
-    newFields.stream().forEach(f -> f.setBoostMultiplier(_boost));
-    Collections.sort(_fields, (df1, df2) ->
-      df1.getDisplayName().compareToIgnoreCase(df2.getDisplayName()));
+    _fields = Collections.unmodifiableList(fieldDefinitions.stream()
+      .map(fieldJson -> new DocumentField(fieldJson, _boost))
+      .sorted((df1, df2) -> df1.getDisplayName().compareToIgnoreCase(df2.getDisplayName()))
+      .collect(Collectors.toList()));
+    _allProjectsFields = new ProjectFields(_fields, field -> true);
+    _unlistedProjectFields = new ProjectFields(_fields, field -> field.getIncludeProjects().isEmpty());
+    Map<String,ProjectFields> listedProjectFields = new HashMap<>();
+    for (DocumentField field : _fields) {
+      for (String project : field.getIncludeProjects().orElse(Collections.emptyList())) {
+        listedProjectFields.computeIfAbsent(project, p -> new ProjectFields(_fields, f -> f.includeInProject(p)));
+      }
+    }
+    _listedProjectFields = Collections.unmodifiableMap(listedProjectFields);
   }
 
   public String getId() {
@@ -70,43 +104,66 @@ public class DocumentType {
     return _wdkSearchUrlName;
   }
 
-  public List<DocumentField>  getSummaryFields(Optional<String> projectId) {
-    return getFields(projectId, DocumentField::isSummary);
+  public List<DocumentField> getSummaryFields(Optional<String> projectId) {
+    return getProjectFields(projectId)._summaryFields;
   }
 
-  public List<DocumentField>  getSearchFields(Optional<String> projectId) {
-    return getFields(projectId, DocumentField::isSearchable);
+  public List<DocumentField> getSearchFields(Optional<String> projectId) {
+    return getProjectFields(projectId)._searchFields;
   }
 
-  private List<DocumentField> getFields(Optional<String> projectId, Predicate<DocumentField> pred) {
-    return _fields.stream()
-      .filter(field -> projectId.isEmpty() || field.includeInProject(projectId.get()))
-      .filter(pred)
-      .collect(Collectors.toList());
+  public Set<String> getSearchFieldNames(Optional<String> projectId) {
+    return getProjectFields(projectId)._searchFieldNames;
   }
 
-  private static JSONArray toJson(List<DocumentField> fields) {
-    JSONArray array = new JSONArray();
-    for (DocumentField field : fields) {
-      array.put(field.toJson());
-    }
-    return array;
+  /**
+   * @return search fields available to projects not named in any field's includeProjects
+   */
+  List<DocumentField> getUnlistedProjectSearchFields() {
+    return _unlistedProjectFields._searchFields;
+  }
+
+  /**
+   * @return summary fields available to projects not named in any field's includeProjects
+   */
+  List<DocumentField> getUnlistedProjectSummaryFields() {
+    return _unlistedProjectFields._summaryFields;
+  }
+
+  /**
+   * @return projects named in the includeProjects of any of this type's fields
+   */
+  Set<String> getListedProjects() {
+    return _listedProjectFields.keySet();
   }
 
-  public JSONObject toJson(Optional<String> projectId) {
-    return new JSONObject()
-      .put("id", _id)
-      .put("displayName", _displayName)
-      .put("displayNamePlural", _displayNamePlural)
-      .put("hasOrganismField", _hasOrganismField)
-      .put("count", _count.orElse(0))
-      .put("summaryFields", toJson(getSummaryFields(projectId)))
-      .put("searchFields", toJson(getSearchFields(projectId)))
-      .put("isWdkRecordType", _wdkSearchUrlName.isPresent())
-      .put("wdkSearchName", _wdkSearchUrlName.orElse(null));
+  private ProjectFields getProjectFields(Optional<String> projectId) {
+    return projectId
+      .map(project -> _listedProjectFields.getOrDefault(project, _unlistedProjectFields))
+      .orElse(_allProjectsFields);
   }
 
-  public void setCount(int count) {
-    _count = Optional.of(count);
+  private static void writeJson(JsonGenerator gen, String name, List<DocumentField> fields) throws IOException {
+    gen.writeArrayFieldStart(name);
+    for (DocumentField field : fields) {
+      field.writeJson(gen);
+    }
+    gen.writeEndArray();
+  }
+
+  public void writeJson(JsonGenerator gen, Optional<String> projectId, int count) throws IOException {
+    gen.writeStartObject();
+    gen.writeStringField("id", _id);
+    gen.writeStringField("displayName", _displayName);
+    gen.writeStringField("displayNamePlural", _displayNamePlural);
+    gen.writeBooleanField("hasOrganismField", _hasOrganismField);
+    gen.writeNumberField("count", count);
+    writeJson(gen, "summaryFields", getSummaryFields(projectId));
+    writeJson(gen, "searchFields", getSearchFields(projectId));
+    gen.writeBooleanField("isWdkRecordType", _wdkSearchUrlName.isPresent());
+    if (_wdkSearchUrlName.isPresent()) {
+      gen.writeStringField("wdkSearchName", _wdkSearchUrlName.get());
+    }
+    gen.writeEndObject();
   }
 }
@@ -0,0 +1,74 @@
+package org.gusdb.sitesearch.service.metadata;
+
+import static org.gusdb.sitesearch.service.SolrCalls.DOCUMENT_TYPE_FIELD;
+import static org.gusdb.sitesearch.service.SolrCalls.ORGANISM_FIELD;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
+import org.gusdb.sitesearch.service.request.DocTypeFilter;
+
+/**
+ * Request-scoped facet counts (document types, organisms, and fields) gathered
+ * from SOLR search responses.  Combined with the shared Metadata object when
+ * formatting results.
+ */
+public class FacetCounts {
+
+  private Map<String,Integer> _docTypeFacetCounts = Collections.emptyMap();
+  private Map<String,Integer> _organismFacetCounts = Collections.emptyMap();
+  private Map<String,Integer> _fieldFacetCounts = Collections.emptyMap();
+
+  public void setDocTypeFacetCounts(Map<String,Map<String, Integer>> allFacets) {
+    _docTypeFacetCounts = new HashMap<>(getFieldFacets(allFacets, DOCUMENT_TYPE_FIELD));
+  }
+
+  private static Map<String, Integer> getFieldFacets(Map<String, Map<String, Integer>> allFacets, String field) {
+    return Optional.ofNullable(allFacets.get(field))
+      .orElseThrow(() -> new SiteSearchRuntimeException("SOLR response did not include facets for '" + field + "'."));
+  }
+
+  public Map<String,Integer> getDocTypeFacetCounts() {
+    return _docTypeFacetCounts;
+  }
+
+  public void setOrganismFacetCounts(
+      Optional<List<String>> restrictMetadataToOrganisms,
+      Map<String, Map<String, Integer>> allFacets) {
+    Map<String,Integer> orgFacets = getFieldFacets(allFacets, ORGANISM_FIELD);
+    _organismFacetCounts = new HashMap<>();
+    if (restrictMetadataToOrganisms.isEmpty()) {
+      _organismFacetCounts.putAll(orgFacets);
+    }
+    else {
+      for (String facetOrg : orgFacets.keySet()) {
+        if (restrictMetadataToOrganisms.get().contains(facetOrg)) {
+          _organismFacetCounts.put(facetOrg, orgFacets.get(facetOrg));
+        }
+      }
+    }
+  }
+
+  public Map<String, Integer> getOrganismFacetCounts() {
+    return _organismFacetCounts;
+  }
+
+  /**
+   * @param docTypeFilter doc type filter of the request; field facets are only collected if present
+   * @param facetCounts facet query results, keyed by field name
+   */
+  public void setFieldFacetCounts(Optional<DocTypeFilter> docTypeFilter, Map<String,Integer> facetCounts) {
+    _fieldFacetCounts = new HashMap<>();
+    if (docTypeFilter.isEmpty()) return;
+    _fieldFacetCounts.putAll(facetCounts);
+  }
+
+  public Map<String,Integer> getFieldCounts() {
+    return _fieldFacetCounts;
+  }
+
+}
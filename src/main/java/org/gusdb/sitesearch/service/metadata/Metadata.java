@@ -8,45 +8,90 @@ import static org.gusdb.fgputil.json.JsonIterators.arrayStream;
 import static org.gusdb.sitesearch.service.SolrCalls.CATEGORIES_META_DOCTYPE;
 import static org.gusdb.sitesearch.service.SolrCalls.DOCUMENT_TYPE_FIELD;
 import static org.gusdb.sitesearch.service.SolrCalls.FIELDS_META_DOCTYPE;
+import static org.gusdb.sitesearch.service.SolrCalls.FIXED_RETURN_FIELDS;
 import static org.gusdb.sitesearch.service.SolrCalls.JSON_BLOB_FIELD;
-import static org.gusdb.sitesearch.service.SolrCalls.ORGANISM_FIELD;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
 import org.gusdb.fgputil.FormatUtil;
 import org.gusdb.fgputil.MapBuilder;
 import org.gusdb.fgputil.Tuples.TwoTuple;
-import org.gusdb.fgputil.solr.Solr.FacetQueryResults;
-import org.gusdb.fgputil.solr.SolrResponse;
 import org.gusdb.sitesearch.service.exception.InvalidRequestException;
 import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
 import org.gusdb.sitesearch.service.request.DocTypeFilter;
 import org.gusdb.sitesearch.service.request.SearchRequest;
-import org.json.JSONArray;
+import org.gusdb.sitesearch.service.solr.SolrSearchResponse;
 import org.json.JSONObject;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Immutable model of the document categories, types, and fields defined by the
+ * metadata documents in SOLR.  A single instance may be shared by all requests;
+ * request-specific facet counts are held separately in FacetCounts.
+ */
 public class Metadata {
 
   private static final Logger LOG = Logger.getLogger(Metadata.class);
 
+  // maximum number of field-filtered search plans retained; others are built per request
+  private static final int MAX_FIELD_FILTERED_PLANS = 1000;
+
+  // plan key segments for project scopes and doc type filters
+  private static final String ALL_PROJECTS = "";
+  private static final String UNLISTED_PROJECT = "?";
+  private static final String ALL_DOC_TYPES = "";
+
+  // SOLR metadata version this was loaded from, and the order in which it was loaded
+  private final String _version;
+  private final long _loadSequence;
+
   private final List<Category> _categories;
   private final Map<String,DocumentType> _docTypes;
-  private Map<String,Integer> _organismFacetCounts;
-  private Map<String,Integer> _fieldFacetCounts;
 
-  public Metadata(SolrResponse result) {
-    JSONObject document = getSingular(result.getDocuments(), CATEGORIES_META_DOCTYPE);
-    _categories = arrayStream(document.getJSONArray(JSON_BLOB_FIELD))
+  // projects named in any field's includeProjects; all other projects see the same fields
+  private final Set<String> _listedProjects;
+
+  // search plans without field filters, keyed by project scope and doc type filter
+  private final Map<String,SearchPlan> _searchPlans;
+
+  // search plans with field filters, built on demand
+  private final Map<String,SearchPlan> _fieldFilteredSearchPlans = new ConcurrentHashMap<>();
+
+  public Metadata(SolrSearchResponse categoriesResult, SolrSearchResponse fieldsResult) {
+    this(categoriesResult, fieldsResult, "", 0);
+  }
+
+  /**
+   * @param categoriesResult SOLR response containing the categories document
+   * @param fieldsResult SOLR response containing the fields document
+   * @param version SOLR metadata version the documents were loaded from
+   * @param loadSequence number increasing with each load, identifying newer metadata
+   */
+  public Metadata(SolrSearchResponse categoriesResult, SolrSearchResponse fieldsResult, String version, long loadSequence) {
+    _version = version;
+    _loadSequence = loadSequence;
+
+    // put fields data in a map for easy access
+    Map<String,List<JSONObject>> fieldMap = getFieldDefinitions(fieldsResult);
+
+    JSONObject document = getSingular(categoriesResult.getDocuments(), CATEGORIES_META_DOCTYPE);
+    _categories = Collections.unmodifiableList(arrayStream(document.getJSONArray(JSON_BLOB_FIELD))
       .map(jsonType -> jsonType.getJSONObject())
-      .map(catObj -> new Category(catObj.getString("name"))
-        .addDocumentTypes(arrayStream(catObj.getJSONArray("documentTypes"))
+      .map(catObj -> new Category(catObj.getString("name"),
+        arrayStream(catObj.getJSONArray("documentTypes"))
           .map(jsonType -> jsonType.getJSONObject())
           .map(docTypeObj -> new DocumentType(
               docTypeObj.getString("id"),
@@ -54,12 +99,41 @@ public class Metadata {
               docTypeObj.getString("displayNamePlural"),
               docTypeObj.getBoolean("hasOrganismField"),
               docTypeObj.optDouble("boost", 1),
-              docTypeObj.optString("wdkSearchUrlName", null)))
+              docTypeObj.optString("wdkSearchUrlName", null),
+              getFieldDefinitions(fieldMap, docTypeObj.getString("id"))))
           .collect(Collectors.toList())))
-      .collect(Collectors.toList());
-    _docTypes = reduce(_categories,
+      .collect(Collectors.toList()));
+    _docTypes = Collections.unmodifiableMap(reduce(_categories,
       (map, cat) -> map.putAll(getMapFromValues(cat, docType -> docType.getId())),
-      new MapBuilder<String,DocumentType>()).toMap();
+      new MapBuilder<String,DocumentType>()).toMap());
+
+    // precompute search plans for every project scope and doc type filter
+    _listedProjects = Collections.unmodifiableSet(_docTypes.values().stream()
+      .flatMap(docType -> docType.getListedProjects().stream())
+      .collect(Collectors.toSet()));
+    Map<String,SearchPlan> searchPlans = new HashMap<>();
+    addSearchPlans(searchPlans, ALL_PROJECTS,
+        docType -> docType.getSearchFields(Optional.empty()),
+        docType -> docType.getSummaryFields(Optional.empty()));
+    addSearchPlans(searchPlans, UNLISTED_PROJECT,
+        docType -> docType.getUnlistedProjectSearchFields(),
+        docType -> docType.getUnlistedProjectSummaryFields());
+    for (String project : _listedProjects) {
+      addSearchPlans(searchPlans, getProjectScope(Optional.of(project)),
+          docType -> docType.getSearchFields(Optional.of(project)),
+          docType -> docType.getSummaryFields(Optional.of(project)));
+    }
+    _searchPlans = Collections.unmodifiableMap(searchPlans);
+
+    // warn if fields contains doc types that categories does not
+    Set<String> knownDocTypes = _docTypes.keySet();
+    for (String fieldDocType : fieldMap.keySet()) {
+      if (!knownDocTypes.contains(fieldDocType)) {
+        LOG.warn("Fields metadata contains " + DOCUMENT_TYPE_FIELD + " '" + fieldDocType +
+            "' but categories metadata does not.  This means no records of that " +
+            "type will ever be found; the type is not used.");
+      }
+    }
   }
 
   private static JSONObject getSingular(List<JSONObject> documents, String docType) {
@@ -70,148 +144,130 @@ public class Metadata {
     return documents.get(0);
   }
 
-  public Metadata addFieldData(SolrResponse result) {
+  private static Map<String,List<JSONObject>> getFieldDefinitions(SolrSearchResponse result) {
     JSONObject document = getSingular(result.getDocuments(), FIELDS_META_DOCTYPE);
-
-    // put fields data in a map for easy access
-    Map<String,List<DocumentField>> fieldMap = getMapFromList(
+    return getMapFromList(
       arrayIterable(document.getJSONArray(JSON_BLOB_FIELD)), val -> {
         JSONObject obj = val.getJSONObject();
-        return new TwoTuple<String,List<DocumentField>>(
+        return new TwoTuple<String,List<JSONObject>>(
           obj.getString(DOCUMENT_TYPE_FIELD),
           arrayStream(obj.getJSONArray("fields"))
-            .map(field -> new DocumentField(field.getJSONObject()))
+            .map(field -> field.getJSONObject())
             .collect(Collectors.toList()));
         }
       );
+  }
 
-    // for each type in categories, add fields
-    for (DocumentType docType : _docTypes.values()) {
-      if (fieldMap.containsKey(docType.getId())) {
-        docType.addFields(fieldMap.get(docType.getId()));
-      }
-      else {
-        LOG.warn("Categories metadata contains " + DOCUMENT_TYPE_FIELD + " '" + docType.getId() +
-            "' but fields metadata does not.  This means no records of that " +
-            "type will ever be found since its fields cannot be specified.");
-      }
+  private static List<JSONObject> getFieldDefinitions(Map<String,List<JSONObject>> fieldMap, String docTypeId) {
+    if (!fieldMap.containsKey(docTypeId)) {
+      LOG.warn("Categories metadata contains " + DOCUMENT_TYPE_FIELD + " '" + docTypeId +
+          "' but fields metadata does not.  This means no records of that " +
+          "type will ever be found since its fields cannot be specified.");
+      return Collections.emptyList();
     }
+    return fieldMap.get(docTypeId);
+  }
 
-    // warn if fields contains doc types that categories does not
-    Set<String> knownDocTypes = _docTypes.keySet();
-    for (String fieldDocType : fieldMap.keySet()) {
-      if (!knownDocTypes.contains(fieldDocType)) {
-        LOG.warn("Fields metadata contains " + DOCUMENT_TYPE_FIELD + " '" + fieldDocType +
-            "' but categories metadata does not.  This means no records of that " +
-            "type will ever be found; the type is not used.");
+  private void addSearchPlans(Map<String,SearchPlan> plans, String projectScope,
+      Function<DocumentType,List<DocumentField>> searchFields,
+      Function<DocumentType,List<DocumentField>> summaryFields) {
+    List<DocumentField> allFields = new ArrayList<>();
+    Set<String> allReturnFields = new TreeSet<>(FIXED_RETURN_FIELDS);
+    for (DocumentType type : _docTypes.values()) {
+      List<DocumentField> typeFields = searchFields.apply(type);
+      allFields.addAll(typeFields);
+      Set<String> typeReturnFields = new TreeSet<>(FIXED_RETURN_FIELDS);
+      for (DocumentField field : summaryFields.apply(type)) {
+        typeReturnFields.add(field.getName());
+        allReturnFields.add(field.getName());
       }
+      plans.put(getPlanKey(projectScope, type.getId()),
+          new SearchPlan(typeFields, true, String.join(" ", typeReturnFields)));
     }
-
-    return this;
+    plans.put(getPlanKey(projectScope, ALL_DOC_TYPES),
+        new SearchPlan(allFields, true, String.join(" ", allReturnFields)));
   }
 
-  public void applyDocTypeFacetCounts(Map<String,Map<String, Integer>> allFacets) {
-    Map<String,Integer> map = getFieldFacets(allFacets, DOCUMENT_TYPE_FIELD);
-    for (DocumentType docType : _docTypes.values()) {
-      docType.setCount(map.containsKey(docType.getId()) ? map.get(docType.getId()) : 0);
-    }
+  private String getProjectScope(Optional<String> projectId) {
+    return projectId
+      .map(project -> _listedProjects.contains(project) ? "=" + project : UNLISTED_PROJECT)
+      .orElse(ALL_PROJECTS);
   }
 
-  private static Map<String, Integer> getFieldFacets(Map<String, Map<String, Integer>> allFacets, String field) {
-    return Optional.ofNullable(allFacets.get(field))
-      .orElseThrow(() -> new SiteSearchRuntimeException("SOLR response did not include facets for '" + field + "'."));
+  private static String getPlanKey(String projectScope, String docType) {
+    return projectScope + "|" + docType;
   }
 
-  public JSONArray getCategoriesJson() {
-    JSONArray catsJson = new JSONArray();
+  public void writeCategoriesJson(JsonGenerator gen) throws IOException {
+    gen.writeStartArray();
     for (Category category : _categories) {
-      catsJson.put(category.toJson());
+      category.writeJson(gen);
     }
-    return catsJson;
+    gen.writeEndArray();
   }
 
-  public JSONArray getDocumentTypesJson(Optional<String> projectId) {
-    JSONArray json = new JSONArray();
+  public void writeDocumentTypesJson(JsonGenerator gen, Optional<String> projectId) throws IOException {
+    writeDocumentTypesJson(gen, projectId, Collections.emptyMap());
+  }
+
+  public void writeDocumentTypesJson(JsonGenerator gen, Optional<String> projectId, Map<String,Integer> docTypeCounts) throws IOException {
+    gen.writeStartArray();
     for (DocumentType docType : _docTypes.values()) {
-      json.put(docType.toJson(projectId));
+      docType.writeJson(gen, projectId, docTypeCounts.getOrDefault(docType.getId(), 0));
     }
-    return json;
+    gen.writeEndArray();
   }
 
-  public TwoTuple<List<DocumentField>,Boolean> getSearchFields(SearchRequest request, boolean applyFieldsFilter) {
+  /**
+   * Returns the search plan (fields to search and derived request values) for
+   * the passed request.  Plans without field filters are precomputed; plans
+   * with field filters are built on first use and retained.
+   *
+   * @param request search request (must already be validated)
+   * @param applyFieldsFilter whether to apply the request's field filter if present
+   * @return search plan
+   */
+  public SearchPlan getSearchPlan(SearchRequest request, boolean applyFieldsFilter) {
 
     // gather filtering options
     Optional<String> docTypeFilter = request.getDocTypeFilter().map(filter -> filter.getDocType());
     Optional<List<String>> fieldsFilter =
       applyFieldsFilter && docTypeFilter.isPresent() ?
         request.getDocTypeFilter().get().getFoundOnlyInFields() : Optional.empty();
-    Optional<String> projectFilter = request.getRestrictToProject();
+    String projectScope = getProjectScope(request.getRestrictToProject());
+    String planKey = getPlanKey(projectScope, docTypeFilter.orElse(ALL_DOC_TYPES));
 
-    // build out list of fields and mark if all fields included
-    List<DocumentField> fields = new ArrayList<>();
-    boolean allFieldsIncluded = true;
-    for (DocumentType type : _docTypes.values()) {
-      // if no docType filter, then add all fields for all types
-      if (docTypeFilter.isEmpty()) {
-        fields.addAll(type.getSearchFields(projectFilter));
-      }
-      // if docType filter present, add fields for only requested docType
-      else if (docTypeFilter.get().equals(type.getId())) {
-        // if no fields filter present, add all fields for this docType
-        if (fieldsFilter.isEmpty()) {
-          fields.addAll(type.getSearchFields(projectFilter));
-        }
-        // if fields filter present, only add fields for this docType which are also in the requested list
-        else {
-          allFieldsIncluded = false;
-          List<String> requestedSearchFields = fieldsFilter.get();
-          for (DocumentField field : type.getSearchFields(projectFilter)) {
-            if (requestedSearchFields.contains(field.getName())) {
-              fields.add(field);
-            }
-          }
-        }
-      }
+    // if no fields filter present, use precomputed plan
+    SearchPlan basePlan = _searchPlans.get(planKey);
+    if (fieldsFilter.isEmpty()) {
+      return basePlan;
     }
-    return new TwoTuple<>(fields, allFieldsIncluded);
-  }
-
-  public Optional<DocumentType> getDocumentType(String docTypeId) {
-    return Optional.ofNullable(_docTypes.get(docTypeId));
-  }
 
-  public void setOrganismFacetCounts(
-      Optional<List<String>> restrictMetadataToOrganisms,
-      Map<String, Map<String, Integer>> allFacets) {
-    Map<String,Integer> orgFacets = getFieldFacets(allFacets, ORGANISM_FIELD);
-    _organismFacetCounts = new HashMap<>();
-    if (restrictMetadataToOrganisms.isEmpty()) {
-      _organismFacetCounts.putAll(orgFacets);
-    }
-    else {
-      for (String facetOrg : orgFacets.keySet()) {
-        if (restrictMetadataToOrganisms.get().contains(facetOrg)) {
-          _organismFacetCounts.put(facetOrg, orgFacets.get(facetOrg));
-        }
+    // if fields filter present, only include fields for this docType which are also in the requested list
+    Set<String> requestedSearchFields = new TreeSet<>(fieldsFilter.get());
+    String filteredPlanKey = planKey + "|" + String.join(",", requestedSearchFields);
+    SearchPlan plan = _fieldFilteredSearchPlans.get(filteredPlanKey);
+    if (plan == null) {
+      plan = new SearchPlan(basePlan.getFields().stream()
+        .filter(field -> requestedSearchFields.contains(field.getName()))
+        .collect(Collectors.toList()), false, basePlan.getReturnFields());
+      if (_fieldFilteredSearchPlans.size() < MAX_FIELD_FILTERED_PLANS) {
+        _fieldFilteredSearchPlans.put(filteredPlanKey, plan);
       }
     }
+    return plan;
   }
 
-  public Map<String, Integer> getOrganismFacetCounts() {
-    return _organismFacetCounts;
+  public String getVersion() {
+    return _version;
   }
 
-  public void setFieldFacetCounts(Optional<DocTypeFilter> docTypeFilter, FacetQueryResults facetCounts) {
-    _fieldFacetCounts = new HashMap<>();
-    if (docTypeFilter.isEmpty()) return;
-    for (String queryString : facetCounts.keySet()) {
-      String fieldName = queryString.substring(0, queryString.indexOf(":"));
-      _fieldFacetCounts.put(fieldName, facetCounts.get(queryString));
-    }
+  public long getLoadSequence() {
+    return _loadSequence;
   }
 
-  public Map<String,Integer> getFieldCounts() {
-    return _fieldFacetCounts;
+  public Optional<DocumentType> getDocumentType(String docTypeId) {
+    return Optional.ofNullable(_docTypes.get(docTypeId));
   }
 
   public void validateRequest(SearchRequest request) {
@@ -228,10 +284,8 @@ public class Metadata {
     // validate fields in field filter if present
     if (filter.getFoundOnlyInFields().isEmpty()) return;
     List<String> requestedFieldNames = filter.getFoundOnlyInFields().get();
-    List<String> validFieldNames = _docTypes.get(docType)
-        .getSearchFields(request.getRestrictToProject())
-        .stream().map(DocumentField::getName)
-        .collect(Collectors.toList());
+    Set<String> validFieldNames = _docTypes.get(docType)
+        .getSearchFieldNames(request.getRestrictToProject());
     List<String> invalidNames = new ArrayList<>();
     for (String filterField : requestedFieldNames) {
       if (!validFieldNames.contains(filterField)) {
@@ -0,0 +1,83 @@
+package org.gusdb.sitesearch.service.metadata;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable set of fields to be searched for a particular combination of
+ * project, document type, and field filter, along with derived values needed
+ * to build SOLR requests (including the fields to be returned).  Plans are
+ * built when metadata is loaded (or on first use for field-filtered searches)
+ * and reused across requests.
+ */
+public class SearchPlan {
+
+  private final List<DocumentField> _fields;
+  private final boolean _allFieldsIncluded;
+  private final String _queryFields;
+  private final String _wildcardQuery;
+  private final String _returnFields;
+  private final String _highlightFields;
+
+  public SearchPlan(List<DocumentField> fields, boolean allFieldsIncluded, String returnFields) {
+    _fields = Collections.unmodifiableList(fields);
+    _allFieldsIncluded = allFieldsIncluded;
+    _queryFields = fields.stream()
+      .map(DocumentField::getQueryFieldSpec)
+      .collect(Collectors.joining(" "));
+    // special case for raw wildcard; need to explicitly search fields if field filter present
+    _wildcardQuery = allFieldsIncluded ? "*:*" : fields.stream()
+      .map(field -> field.getName() + ":*")
+      .collect(Collectors.joining(" "));
+    _returnFields = returnFields;
+    _highlightFields = fields.stream()
+      .map(DocumentField::getName)
+      .distinct()
+      .collect(Collectors.joining(","));
+  }
+
+  /**
+   * @return fields to be searched
+   */
+  public List<DocumentField> getFields() {
+    return _fields;
+  }
+
+  /**
+   * @return true if no field filter was applied to this plan's fields
+   */
+  public boolean isAllFieldsIncluded() {
+    return _allFieldsIncluded;
+  }
+
+  /**
+   * @return fields to be searched, with boosts, formatted as a SOLR qf parameter value
+   */
+  public String getQueryFields() {
+    return _queryFields;
+  }
+
+  /**
+   * @return fields needed to format results (fixed fields plus the summary
+   * fields of the doc types in scope), formatted as a SOLR fl parameter value
+   */
+  public String getReturnFields() {
+    return _returnFields;
+  }
+
+  /**
+   * @return names of fields to be searched, formatted as a SOLR hl.fl parameter value
+   */
+  public String getHighlightFields() {
+    return _highlightFields;
+  }
+
+  /**
+   * @param searchText translated search text from the request
+   * @return SOLR query string for the passed search text
+   */
+  public String getSearchQueryString(String searchText) {
+    return searchText.equals("*") ? _wildcardQuery : searchText;
+  }
+}
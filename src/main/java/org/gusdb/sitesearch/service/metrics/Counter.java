@@ -0,0 +1,53 @@
+package org.gusdb.sitesearch.service.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter (only incremented) or gauge (incremented and decremented), split by
+ * the value of a single label
+ */
+public class Counter {
+
+  private final String _name;
+  private final String _help;
+  private final String _type;
+  private final String _labelName;
+  private final Map<String,LongAdder> _values = new ConcurrentHashMap<>();
+
+  public static Counter counter(String name, String help, String labelName) {
+    return new Counter(name, help, "counter", labelName);
+  }
+
+  public static Counter gauge(String name, String help, String labelName) {
+    return new Counter(name, help, "gauge", labelName);
+  }
+
+  private Counter(String name, String help, String type, String labelName) {
+    _name = name;
+    _help = help;
+    _type = type;
+    _labelName = labelName;
+  }
+
+  public void increment(String labelValue) {
+    get(labelValue).increment();
+  }
+
+  public void decrement(String labelValue) {
+    get(labelValue).decrement();
+  }
+
+  private LongAdder get(String labelValue) {
+    LongAdder value = _values.get(labelValue);
+    return value != null ? value : _values.computeIfAbsent(labelValue, v -> new LongAdder());
+  }
+
+  void write(StringBuilder out) {
+    MetricsText.writeHeader(out, _name, _help, _type);
+    for (Map.Entry<String,LongAdder> entry : _values.entrySet()) {
+      MetricsText.writeSample(out, _name, MetricsText.label(_labelName, entry.getKey()), entry.getValue().sum());
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package org.gusdb.sitesearch.service.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with fixed bucket bounds, optionally split by the value of a
+ * single label.  Observations only increment adders, so recording is cheap
+ * and does not contend between threads; cumulative bucket counts are computed
+ * when written.
+ */
+public class Histogram {
+
+  private static class Series {
+
+    private final LongAdder[] _bucketCounts; // last bucket is +Inf
+    private final DoubleAdder _sum = new DoubleAdder();
+
+    private Series(int numBuckets) {
+      _bucketCounts = new LongAdder[numBuckets + 1];
+      for (int i = 0; i < _bucketCounts.length; i++) {
+        _bucketCounts[i] = new LongAdder();
+      }
+    }
+  }
+
+  private final String _name;
+  private final String _help;
+  private final String _labelName;
+  private final double[] _bounds;
+  private final Map<String,Series> _series = new ConcurrentHashMap<>();
+
+  /**
+   * @param name metric name
+   * @param help metric description
+   * @param labelName name of the label splitting observations, or null if none
+   * @param bounds ascending upper bounds of the buckets
+   */
+  public Histogram(String name, String help, String labelName, double[] bounds) {
+    _name = name;
+    _help = help;
+    _labelName = labelName;
+    _bounds = bounds.clone();
+  }
+
+  /**
+   * Records an observation of an unlabeled histogram
+   */
+  public void observe(double value) {
+    observe("", value);
+  }
+
+  /**
+   * Records an observation with the passed label value
+   */
+  public void observe(String labelValue, double value) {
+    Series series = _series.get(labelValue);
+    if (series == null) {
+      series = _series.computeIfAbsent(labelValue, v -> new Series(_bounds.length));
+    }
+    int bucket = 0;
+    while (bucket < _bounds.length && value > _bounds[bucket]) {
+      bucket++;
+    }
+    series._bucketCounts[bucket].increment();
+    series._sum.add(value);
+  }
+
+  /**
+   * Records the seconds elapsed since the passed System.nanoTime() value in
+   * an unlabeled histogram
+   */
+  public void observeSince(long startNanos) {
+    observeSince("", startNanos);
+  }
+
+  /**
+   * Records the seconds elapsed since the passed System.nanoTime() value
+   */
+  public void observeSince(String labelValue, long startNanos) {
+    observe(labelValue, MetricsText.secondsSince(startNanos));
+  }
+
+  void write(StringBuilder out) {
+    MetricsText.writeHeader(out, _name, _help, "histogram");
+    for (Map.Entry<String,Series> entry : _series.entrySet()) {
+      String label = _labelName == null ? "" : MetricsText.label(_labelName, entry.getKey());
+      String prefix = label.isEmpty() ? "" : label + ",";
+      Series series = entry.getValue();
+      long cumulative = 0;
+      for (int i = 0; i < series._bucketCounts.length; i++) {
+        cumulative += series._bucketCounts[i].sum();
+        String bound = i < _bounds.length ? MetricsText.number(_bounds[i]) : "+Inf";
+        MetricsText.writeSample(out, _name + "_bucket", prefix + MetricsText.label("le", bound), cumulative);
+      }
+      MetricsText.writeSample(out, _name + "_sum", label, series._sum.sum());
+      MetricsText.writeSample(out, _name + "_count", label, cumulative);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package org.gusdb.sitesearch.service.metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide metrics recorded by the service.  Values gathered from other
+ * components when scraped (caches, admission lanes, connections) are written
+ * by the metrics endpoint itself.
+ */
+public class Metrics {
+
+  // bucket bounds
+  private static final double[] LATENCY_SECS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120 };
+  private static final double[] SIZE_CHARS = { 1e3, 4e3, 16e3, 64e3, 256e3, 1e6, 4e6, 16e6 };
+  private static final double[] ROWS = { 10, 100, 1e3, 1e4, 1e5, 1e6 };
+
+  public static final Histogram REQUEST_SECONDS = new Histogram("sitesearch_request_duration_seconds",
+      "Time to produce a response (excluding streamed bodies), by endpoint", "endpoint", LATENCY_SECS);
+
+  public static final Counter REQUESTS_IN_FLIGHT = Counter.gauge("sitesearch_requests_in_flight",
+      "Requests currently being processed, by endpoint", "endpoint");
+
+  public static final Histogram PHASE_SECONDS = new Histogram("sitesearch_phase_duration_seconds",
+      "Time spent in each phase of request processing", "phase", LATENCY_SECS);
+
+  public static final Histogram ADMISSION_WAIT_SECONDS = new Histogram("sitesearch_admission_wait_seconds",
+      "Time requests waited to be admitted, by lane", "lane", LATENCY_SECS);
+
+  public static final Histogram SOLR_CALL_SECONDS = new Histogram("sitesearch_solr_call_duration_seconds",
+      "Duration of SOLR calls, including reading the response, by call type", "call", LATENCY_SECS);
+
+  public static final Counter SOLR_CALL_ERRORS = Counter.counter("sitesearch_solr_call_errors_total",
+      "Failed SOLR calls, by call type", "call");
+
+  public static final Histogram RESPONSE_SIZE_CHARS = new Histogram("sitesearch_response_size_chars",
+      "Size of JSON response bodies in characters, by endpoint", "endpoint", SIZE_CHARS);
+
+  public static final Histogram EXPORT_ROWS = new Histogram("sitesearch_export_rows",
+      "Number of rows in completed exports", null, ROWS);
+
+  public static final Histogram EXPORT_SECONDS = new Histogram("sitesearch_export_duration_seconds",
+      "Time to stream completed exports to the client", null, LATENCY_SECS);
+
+  private static final Histogram[] HISTOGRAMS = {
+      REQUEST_SECONDS, PHASE_SECONDS, ADMISSION_WAIT_SECONDS, SOLR_CALL_SECONDS,
+      RESPONSE_SIZE_CHARS, EXPORT_ROWS, EXPORT_SECONDS };
+
+  private static final Counter[] COUNTERS = { REQUESTS_IN_FLIGHT, SOLR_CALL_ERRORS };
+
+  /**
+   * Runs a synchronous SOLR call, recording its duration and any failure
+   */
+  public static <T> T timeSolrCall(String call, Supplier<T> solrCall) {
+    long start = System.nanoTime();
+    try {
+      return solrCall.get();
+    }
+    catch (RuntimeException e) {
+      SOLR_CALL_ERRORS.increment(call);
+      throw e;
+    }
+    finally {
+      SOLR_CALL_SECONDS.observeSince(call, start);
+    }
+  }
+
+  /**
+   * Starts an asynchronous SOLR call, recording its duration and any failure
+   * when it completes
+   */
+  public static <T> CompletableFuture<T> timeSolrCallAsync(String call, Supplier<CompletableFuture<T>> solrCall) {
+    long start = System.nanoTime();
+    CompletableFuture<T> result;
+    try {
+      result = solrCall.get();
+    }
+    catch (RuntimeException e) {
+      result = CompletableFuture.failedFuture(e);
+    }
+    return result.whenComplete((value, e) -> {
+      if (e != null) SOLR_CALL_ERRORS.increment(call);
+      SOLR_CALL_SECONDS.observeSince(call, start);
+    });
+  }
+
+  /**
+   * Writes all metrics recorded by this class
+   */
+  public static void write(StringBuilder out) {
+    for (Histogram histogram : HISTOGRAMS) {
+      histogram.write(out);
+    }
+    for (Counter counter : COUNTERS) {
+      counter.write(out);
+    }
+  }
+}
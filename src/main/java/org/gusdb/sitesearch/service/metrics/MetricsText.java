@@ -0,0 +1,58 @@
+package org.gusdb.sitesearch.service.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (version 0.0.4)
+ */
+public class MetricsText {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  public static double secondsSince(long startNanos) {
+    return (System.nanoTime() - startNanos) / (double)TimeUnit.SECONDS.toNanos(1);
+  }
+
+  /**
+   * Writes a single unlabeled value
+   */
+  public static void writeValue(StringBuilder out, String name, String help, String type, double value) {
+    writeHeader(out, name, help, type);
+    writeSample(out, name, "", value);
+  }
+
+  /**
+   * Writes one value per label value
+   */
+  public static void writeValues(StringBuilder out, String name, String help, String type,
+      String labelName, Map<String,? extends Number> values) {
+    writeHeader(out, name, help, type);
+    for (Map.Entry<String,? extends Number> value : values.entrySet()) {
+      writeSample(out, name, label(labelName, value.getKey()), value.getValue().doubleValue());
+    }
+  }
+
+  static void writeHeader(StringBuilder out, String name, String help, String type) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  static void writeSample(StringBuilder out, String name, String labels, double value) {
+    out.append(name);
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(number(value)).append('\n');
+  }
+
+  static String label(String name, String value) {
+    return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+  }
+
+  static String number(double value) {
+    return value == Math.rint(value) && Math.abs(value) < 1e15
+      ? String.valueOf((long)value)
+      : String.valueOf(value);
+  }
+}
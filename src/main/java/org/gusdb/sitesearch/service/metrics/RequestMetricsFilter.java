@@ -0,0 +1,50 @@
+package org.gusdb.sitesearch.service.metrics;
+
+import java.lang.reflect.Method;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+
+/**
+ * Records the duration and concurrency of requests, labeled by the name of
+ * the resource method handling them (so label values are bounded)
+ */
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+  private static final String START_PROPERTY = RequestMetricsFilter.class.getName() + ".start";
+  private static final String ENDPOINT_PROPERTY = RequestMetricsFilter.class.getName() + ".endpoint";
+  private static final String UNMATCHED = "unmatched";
+
+  @Context
+  private ResourceInfo _resourceInfo;
+
+  @Override
+  public void filter(ContainerRequestContext request) {
+    String endpoint = getEndpoint();
+    request.setProperty(ENDPOINT_PROPERTY, endpoint);
+    request.setProperty(START_PROPERTY, System.nanoTime());
+    Metrics.REQUESTS_IN_FLIGHT.increment(endpoint);
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+    // response filters may run more than once for a request (e.g. again for the
+    // mapped exception if writing the response fails), so remove the start time
+    // to count each request exactly once
+    Object start = request.getProperty(START_PROPERTY);
+    if (start == null) return; // request failed before matching, or already counted
+    request.removeProperty(START_PROPERTY);
+    String endpoint = (String)request.getProperty(ENDPOINT_PROPERTY);
+    Metrics.REQUESTS_IN_FLIGHT.decrement(endpoint);
+    Metrics.REQUEST_SECONDS.observeSince(endpoint, (Long)start);
+  }
+
+  private String getEndpoint() {
+    Method method = _resourceInfo.getResourceMethod();
+    return method == null ? UNMATCHED : method.getName();
+  }
+}
@@ -0,0 +1,39 @@
+package org.gusdb.sitesearch.service.request;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import org.gusdb.sitesearch.service.exception.InvalidRequestException;
+
+/**
+ * How fields matching the search text are reported for each found document
+ */
+public enum HighlightMode {
+
+  // matching fields with highlighted snippets
+  SNIPPETS("snippets"),
+
+  // names of matching fields only
+  FIELD_NAMES("fieldNames"),
+
+  // no highlighting (e.g. search-as-you-type)
+  NONE("none");
+
+  private final String _value;
+
+  private HighlightMode(String value) {
+    _value = value;
+  }
+
+  public String getValue() {
+    return _value;
+  }
+
+  public static HighlightMode fromValue(String value) {
+    return Arrays.stream(values())
+      .filter(mode -> mode._value.equals(value))
+      .findFirst()
+      .orElseThrow(() -> new InvalidRequestException("Invalid highlight value '" + value + "'.  Must be one of: " +
+          Arrays.stream(values()).map(HighlightMode::getValue).collect(Collectors.joining(", "))));
+  }
+}
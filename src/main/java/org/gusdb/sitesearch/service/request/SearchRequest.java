@@ -5,9 +5,11 @@ import static org.gusdb.fgputil.json.JsonUtil.toStringArray;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.gusdb.fgputil.FormatUtil;
 import org.gusdb.sitesearch.service.exception.InvalidRequestException;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 /**
@@ -23,7 +25,8 @@ import org.json.JSONObject;
  *   documentTypeFilter?: {
  *     documentType: string,
  *     foundOnlyInFields?: string[]
- *   }
+ *   },
+ *   highlight?: 'snippets' | 'fieldNames' | 'none' (default 'snippets')
  * }
  */
 public class SearchRequest {
@@ -40,6 +43,7 @@ public class SearchRequest {
   private final List<String> _restrictSearchToOrganisms;
   private final boolean _orgFilterPresent;
   private final DocTypeFilter _filter;
+  private final HighlightMode _highlightMode;
 
   public SearchRequest(JSONObject requestJson, boolean expectAndRequirePagination, boolean requireDocTypeFilter, boolean disallowFieldFilters) {
     _searchText = translateSearchText(requestJson.getString("searchText"));
@@ -70,6 +74,7 @@ public class SearchRequest {
     if (_filter != null && _filter.getFoundOnlyInFields().isPresent() && disallowFieldFilters) {
       throw new InvalidRequestException("Field filters ('foundOnlyInFields' property) are not allowed at this endpoint.");
     }
+    _highlightMode = HighlightMode.fromValue(requestJson.optString("highlight", HighlightMode.SNIPPETS.getValue()));
   }
 
   private static boolean isSubset(
@@ -91,7 +96,7 @@ public class SearchRequest {
   }
 
   public SearchRequest(String searchText, int offset, int numRecords,
-      Optional<String> docTypeFilter, Optional<String> projectIdFilter) {
+      Optional<String> docTypeFilter, Optional<String> projectIdFilter, HighlightMode highlightMode) {
     _searchText = translateSearchText(searchText);
     _pagination = new Pagination(offset, numRecords);
     _restrictToProject = projectIdFilter.orElse(null);
@@ -99,6 +104,7 @@ public class SearchRequest {
     _restrictMetadataToOrganisms = null;
     _restrictSearchToOrganisms = null;
     _orgFilterPresent = false;
+    _highlightMode = highlightMode;
   }
 
   /**
@@ -137,6 +143,10 @@ public class SearchRequest {
     return Optional.ofNullable(_filter);
   }
 
+  public HighlightMode getHighlightMode() {
+    return _highlightMode;
+  }
+
   public boolean hasOrganismFilter() {
     return _orgFilterPresent;
   }
@@ -145,6 +155,30 @@ public class SearchRequest {
     return getDocTypeFilter().isPresent();
   }
 
+  /**
+   * Returns a key identifying this request's results.  Requests which differ
+   * only in the order of organisms or field filters produce the same key.
+   *
+   * @return normalized representation of this request
+   */
+  public String getCacheKey() {
+    return new JSONArray()
+      .put(_searchText)
+      .put(_pagination == null ? JSONObject.NULL : _pagination.getOffset())
+      .put(_pagination == null ? JSONObject.NULL : _pagination.getNumRecords())
+      .put(_restrictToProject == null ? JSONObject.NULL : _restrictToProject)
+      .put(sorted(_restrictMetadataToOrganisms))
+      .put(sorted(_restrictSearchToOrganisms))
+      .put(_filter == null ? JSONObject.NULL : _filter.getDocType())
+      .put(_filter == null ? JSONObject.NULL : sorted(_filter.getFoundOnlyInFields().orElse(null)))
+      .put(_highlightMode.getValue())
+      .toString();
+  }
+
+  private static Object sorted(List<String> values) {
+    return values == null ? JSONObject.NULL : new JSONArray(values.stream().sorted().collect(Collectors.toList()));
+  }
+
   public boolean hasDocTypeFilterAndFields() {
     return getDocTypeFilter().isPresent() &&
         getDocTypeFilter().get().getFoundOnlyInFields().isPresent();
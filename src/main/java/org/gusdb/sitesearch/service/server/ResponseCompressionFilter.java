@@ -0,0 +1,109 @@
+package org.gusdb.sitesearch.service.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Gzip-compresses response bodies for clients that accept it (per the
+ * Accept-Encoding request header).  Compression is applied as the entity is
+ * written, so streamed responses (e.g. exports) remain streamed; each flush
+ * of the entity output also flushes the compressed stream.  Entities whose
+ * size is known up front and is below the configured threshold are sent
+ * uncompressed.
+ */
+public class ResponseCompressionFilter implements ContainerResponseFilter, WriterInterceptor {
+
+  private static final String GZIP = "gzip";
+  private static final int BUFFER_SIZE = 8192;
+
+  private final int _minBytes;
+
+  /**
+   * @param minBytes minimum size of a string or byte array entity to be compressed
+   */
+  public ResponseCompressionFilter(int minBytes) {
+    _minBytes = minBytes;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+    if (!response.hasEntity() || response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+      return;
+    }
+    response.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (acceptsGzip(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING)) && isLargeEnough(response.getEntity())) {
+      response.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, GZIP);
+    }
+  }
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+    if (!GZIP.equals(context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))) {
+      context.proceed();
+      return;
+    }
+    // length of the compressed body is not known in advance
+    context.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+    GZIPOutputStream gzip = new GZIPOutputStream(context.getOutputStream(), BUFFER_SIZE, true);
+    context.setOutputStream(gzip);
+    context.proceed();
+    gzip.finish();
+  }
+
+  private boolean isLargeEnough(Object entity) {
+    if (entity instanceof String) {
+      String text = (String)entity;
+      // characters are a lower bound on the number of bytes
+      return text.length() >= _minBytes || text.getBytes(StandardCharsets.UTF_8).length >= _minBytes;
+    }
+    if (entity instanceof byte[]) {
+      return ((byte[])entity).length >= _minBytes;
+    }
+    // size of streamed entities is unknown; assume they are large
+    return true;
+  }
+
+  /**
+   * @param acceptEncoding value of the Accept-Encoding header (may be null)
+   * @return true if the header allows a gzip-encoded response; an explicit
+   * gzip entry takes precedence over a wildcard
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) return false;
+    double gzipQuality = -1, wildcardQuality = -1;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase();
+      if (name.equals(GZIP) || name.equals("x-gzip")) {
+        gzipQuality = getQuality(parts);
+      }
+      else if (name.equals("*")) {
+        wildcardQuality = getQuality(parts);
+      }
+    }
+    return (gzipQuality >= 0 ? gzipQuality : wildcardQuality) > 0;
+  }
+
+  private static double getQuality(String[] codingParts) {
+    for (int i = 1; i < codingParts.length; i++) {
+      String param = codingParts[i].trim();
+      if (param.startsWith("q=")) {
+        try {
+          return Double.parseDouble(param.substring(2).trim());
+        }
+        catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+}
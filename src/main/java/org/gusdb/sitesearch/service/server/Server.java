@@ -1,19 +1,35 @@
 package org.gusdb.sitesearch.service.server;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.glassfish.jersey.server.ResourceConfig;
 import org.gusdb.fgputil.runtime.Environment;
 import org.gusdb.fgputil.server.BasicApplicationContext;
 import org.gusdb.fgputil.server.RESTServer;
 import org.gusdb.fgputil.web.ApplicationContext;
+import org.gusdb.sitesearch.service.AdmissionLane;
+import org.gusdb.sitesearch.service.MetadataCache;
+import org.gusdb.sitesearch.service.SearchResponseCache;
 import org.gusdb.sitesearch.service.Service;
 import org.gusdb.sitesearch.service.exception.SiteSearchExceptionMapper;
+import org.gusdb.sitesearch.service.metrics.RequestMetricsFilter;
+import org.gusdb.sitesearch.service.solr.SolrClient;
+import org.gusdb.sitesearch.service.solr.SolrResponseFormat;
 import org.json.JSONObject;
 
 public class Server extends RESTServer {
 
   private static final String SERVER_PORT_ENV_VAR = "SERVER_PORT";
+  private static final String RESPONSE_COMPRESSION_MIN_BYTES_ENV_VAR = "RESPONSE_COMPRESSION_MIN_BYTES";
 
   public static void main(String[] args) {
     String port = Environment.getOptionalVar(SERVER_PORT_ENV_VAR, "8080");
@@ -34,8 +50,10 @@ public class Server extends RESTServer {
     // create a Jersey resource config containing our service and provider classes
     return new ResourceConfig().registerClasses(
         Service.class,
-        SiteSearchExceptionMapper.class
-    );
+        SiteSearchExceptionMapper.class,
+        RequestMetricsFilter.class
+    ).register(new ResponseCompressionFilter(Integer.parseInt(
+        Environment.getOptionalVar(RESPONSE_COMPRESSION_MIN_BYTES_ENV_VAR, "1024"))));
   }
 
   @Override
@@ -47,6 +65,33 @@ public class Server extends RESTServer {
 
     public static final String SOLR_URL = "SOLR_URL";
     public static final String SOLR_CORE = "SOLR_CORE";
+    public static final String METADATA_CHECK_INTERVAL_SECS = "METADATA_CHECK_INTERVAL_SECS";
+    public static final String METADATA_CACHE = "METADATA_CACHE";
+    public static final String SOLR_CALL_THREADS = "SOLR_CALL_THREADS";
+    public static final String SOLR_CONNECT_TIMEOUT_SECS = "SOLR_CONNECT_TIMEOUT_SECS";
+    public static final String SOLR_READ_TIMEOUT_SECS = "SOLR_READ_TIMEOUT_SECS";
+    public static final String SOLR_MAX_CONNECTIONS = "SOLR_MAX_CONNECTIONS";
+    public static final String SOLR_COMPRESSION_ENABLED = "SOLR_COMPRESSION_ENABLED";
+    public static final String SOLR_RESPONSE_FORMAT = "SOLR_RESPONSE_FORMAT";
+    public static final String SOLR_CLIENT = "SOLR_CLIENT";
+    public static final String EXPORT_PREFETCH_THREADS = "EXPORT_PREFETCH_THREADS";
+    public static final String EXPORT_EXECUTOR = "EXPORT_EXECUTOR";
+    public static final String SOLR_EXPORT_HANDLER_DOC_TYPES = "SOLR_EXPORT_HANDLER_DOC_TYPES";
+    public static final String SEARCH_CACHE_MAX_ENTRIES = "SEARCH_CACHE_MAX_ENTRIES";
+    public static final String SEARCH_CACHE_MAX_CHARS = "SEARCH_CACHE_MAX_CHARS";
+    public static final String SEARCH_CACHE_TTL_SECS = "SEARCH_CACHE_TTL_SECS";
+    public static final String SEARCH_RESPONSE_CACHE = "SEARCH_RESPONSE_CACHE";
+    public static final String ADMISSION_QUEUE_TIMEOUT_SECS = "ADMISSION_QUEUE_TIMEOUT_SECS";
+    public static final String SEARCH_TIMEOUT_SECS = "SEARCH_TIMEOUT_SECS";
+    public static final String SUGGEST_TIMEOUT_SECS = "SUGGEST_TIMEOUT_SECS";
+    public static final String SEARCH_LANE = "SEARCH";
+    public static final String SUGGEST_LANE = "SUGGEST";
+    public static final String EXPORT_LANE = "EXPORT";
+    public static final String METADATA_LANE = "METADATA";
+
+    private final ExecutorService _solrCallExecutor;
+    private final ExecutorService _exportExecutor;
+    private final ExecutorService _admissionExecutor;
 
     /**
      * @param config unused config; now performed by env vars
@@ -54,11 +99,109 @@ public class Server extends RESTServer {
     public Context(JSONObject config) {
       put(SOLR_URL, Environment.getRequiredVar(SOLR_URL));
       put(SOLR_CORE, Environment.getRequiredVar(SOLR_CORE));
+      put(SOLR_CLIENT, new SolrClient(
+          (String)get(SOLR_URL),
+          (String)get(SOLR_CORE),
+          Integer.parseInt(Environment.getOptionalVar(SOLR_CONNECT_TIMEOUT_SECS, "10")),
+          Integer.parseInt(Environment.getOptionalVar(SOLR_READ_TIMEOUT_SECS, "120")),
+          Integer.parseInt(Environment.getOptionalVar(SOLR_MAX_CONNECTIONS, "50")),
+          Boolean.parseBoolean(Environment.getOptionalVar(SOLR_COMPRESSION_ENABLED, "true")),
+          SolrResponseFormat.fromWriterType(Environment.getOptionalVar(SOLR_RESPONSE_FORMAT, "json"))));
+      _solrCallExecutor = createSolrCallExecutor(Integer.parseInt(
+          Environment.getOptionalVar(SOLR_CALL_THREADS, "8")));
+      _exportExecutor = createExportExecutor(Integer.parseInt(
+          Environment.getOptionalVar(EXPORT_PREFETCH_THREADS, "8")));
+      put(EXPORT_EXECUTOR, _exportExecutor);
+      put(SOLR_EXPORT_HANDLER_DOC_TYPES, Arrays.stream(
+          Environment.getOptionalVar(SOLR_EXPORT_HANDLER_DOC_TYPES, "").split(","))
+        .map(String::trim)
+        .filter(docType -> !docType.isEmpty())
+        .collect(Collectors.toUnmodifiableSet()));
+      put(METADATA_CACHE, new MetadataCache(Long.parseLong(
+          Environment.getOptionalVar(METADATA_CHECK_INTERVAL_SECS, "60")), _solrCallExecutor));
+      put(SEARCH_RESPONSE_CACHE, new SearchResponseCache(
+          Integer.parseInt(Environment.getOptionalVar(SEARCH_CACHE_MAX_ENTRIES, "1000")),
+          Long.parseLong(Environment.getOptionalVar(SEARCH_CACHE_MAX_CHARS, "50000000")),
+          Long.parseLong(Environment.getOptionalVar(SEARCH_CACHE_TTL_SECS, "300"))));
+      put(SEARCH_TIMEOUT_SECS, Duration.ofSeconds(Long.parseLong(
+          Environment.getOptionalVar(SEARCH_TIMEOUT_SECS, "30"))));
+      put(SUGGEST_TIMEOUT_SECS, Duration.ofSeconds(Long.parseLong(
+          Environment.getOptionalVar(SUGGEST_TIMEOUT_SECS, "10"))));
+      int queueTimeoutSecs = Integer.parseInt(Environment.getOptionalVar(ADMISSION_QUEUE_TIMEOUT_SECS, "5"));
+      _admissionExecutor = createAdmissionExecutor();
+      put(SEARCH_LANE, createLane(SEARCH_LANE, 64, 256, queueTimeoutSecs, _admissionExecutor));
+      put(SUGGEST_LANE, createLane(SUGGEST_LANE, 32, 128, queueTimeoutSecs, _admissionExecutor));
+      put(EXPORT_LANE, createLane(EXPORT_LANE, 4, 4, queueTimeoutSecs, _admissionExecutor));
+      put(METADATA_LANE, createLane(METADATA_LANE, 8, 32, queueTimeoutSecs, _admissionExecutor));
+    }
+
+    /**
+     * Creates an admission lane whose limits are read from the env vars
+     * {name}_MAX_CONCURRENT and {name}_MAX_QUEUED, if set.
+     */
+    private static AdmissionLane createLane(String name, int defaultMaxConcurrent, int defaultMaxQueued,
+        int queueTimeoutSecs, ExecutorService executor) {
+      return new AdmissionLane(name.toLowerCase(),
+          Integer.parseInt(Environment.getOptionalVar(name + "_MAX_CONCURRENT", String.valueOf(defaultMaxConcurrent))),
+          Integer.parseInt(Environment.getOptionalVar(name + "_MAX_QUEUED", String.valueOf(defaultMaxQueued))),
+          queueTimeoutSecs, executor);
+    }
+
+    /**
+     * Creates the executor on which requests admitted after waiting in a lane
+     * are continued.  The number of such requests is bounded by the lanes'
+     * concurrency limits, so threads are created as needed rather than queued.
+     */
+    private static ExecutorService createAdmissionExecutor() {
+      AtomicInteger threadCount = new AtomicInteger();
+      return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+          new SynchronousQueue<>(),
+          runnable -> {
+            Thread thread = new Thread(runnable, "admitted-request-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+    }
+
+    /**
+     * Creates a bounded executor for SOLR calls made concurrently with others
+     * in the same request.  If all threads are busy and the queue is full, the
+     * calling thread runs the call itself, so work is never rejected.
+     */
+    private static ExecutorService createSolrCallExecutor(int numThreads) {
+      AtomicInteger threadCount = new AtomicInteger();
+      return new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<>(numThreads * 4),
+          runnable -> {
+            Thread thread = new Thread(runnable, "solr-call-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          },
+          new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Creates a bounded executor for export page prefetching.  Each export
+     * occupies a thread for its duration, so tasks are never queued; if all
+     * threads are busy, the task is rejected and the export runs unpipelined.
+     */
+    private static ExecutorService createExportExecutor(int numThreads) {
+      AtomicInteger threadCount = new AtomicInteger();
+      return new ThreadPoolExecutor(0, numThreads, 60, TimeUnit.SECONDS,
+          new SynchronousQueue<>(),
+          runnable -> {
+            Thread thread = new Thread(runnable, "export-prefetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          },
+          new ThreadPoolExecutor.AbortPolicy());
     }
 
     @Override
     public void close() {
-      // nothing to do here
+      _solrCallExecutor.shutdownNow();
+      _exportExecutor.shutdownNow();
+      _admissionExecutor.shutdownNow();
     }
   }
 }
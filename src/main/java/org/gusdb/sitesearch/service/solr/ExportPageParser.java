@@ -0,0 +1,193 @@
+package org.gusdb.sitesearch.service.solr;
+
+import static org.gusdb.sitesearch.service.SolrCalls.PRIMARY_KEY_FIELD;
+import static org.gusdb.sitesearch.service.SolrCalls.PROJECT_FIELD;
+import static org.gusdb.sitesearch.service.SolrCalls.SCORE_FIELD;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
+import org.json.JSONObject;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParser.NumberType;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Pull-parses a page of cursor-based export results from a SOLR select
+ * response (wt=json or wt=smile), handing each document's primary key, score, and project
+ * to a row writer as soon as the document has been read.  No document objects
+ * are built, so memory use does not depend on page size.
+ */
+public class ExportPageParser {
+
+  /**
+   * Receives the exported values of a single document
+   */
+  @FunctionalInterface
+  public interface ExportRowWriter {
+    /**
+     * @param primaryKeyJson primary key values, formatted as a JSON array
+     * @param score document score, or NaN for /export handler responses, which have no scores
+     * @param project document project, or empty string if none
+     */
+    void writeRow(String primaryKeyJson, double score, String project) throws IOException;
+  }
+
+  /**
+   * Summary of a parsed page
+   */
+  public static class ExportPage {
+
+    private final int _totalCount;
+    private final String _nextCursorMark;
+
+    public ExportPage(int totalCount, String nextCursorMark) {
+      _totalCount = totalCount;
+      _nextCursorMark = nextCursorMark;
+    }
+
+    public int getTotalCount() {
+      return _totalCount;
+    }
+
+    public String getNextCursorMark() {
+      return _nextCursorMark;
+    }
+  }
+
+  /**
+   * Parses a SOLR cursor response, passing each document's values to the row writer.
+   *
+   * @param body SOLR response body
+   * @param format format of the response body
+   * @param rowWriter receiver of document values
+   * @return page summary, including the cursor mark of the next page
+   */
+  public static ExportPage parse(InputStream body, SolrResponseFormat format, ExportRowWriter rowWriter) throws IOException {
+    return parse(body, format, rowWriter, true);
+  }
+
+  /**
+   * Parses a SOLR /export handler response, which contains all results and no
+   * cursor mark, passing each document's values to the row writer.  Documents
+   * do not have scores, so the row writer is passed NaN and must supply the
+   * score itself.  Multi-valued fields are returned sorted and de-duplicated,
+   * so documents with a multi-valued primary key are rejected.  The /export
+   * handler only writes JSON.
+   *
+   * @param body SOLR response body
+   * @param rowWriter receiver of document values
+   * @return page summary; the next cursor mark will be null
+   */
+  public static ExportPage parseAll(InputStream body, ExportRowWriter rowWriter) throws IOException {
+    return parse(body, SolrResponseFormat.JSON, rowWriter, false);
+  }
+
+  private static ExportPage parse(InputStream body, SolrResponseFormat format,
+      ExportRowWriter rowWriter, boolean cursorExpected) throws IOException {
+    try (JsonParser parser = format.createParser(body)) {
+      expect(parser.nextToken(), JsonToken.START_OBJECT);
+      int totalCount = -1;
+      String nextCursorMark = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        parser.nextToken();
+        switch (name) {
+          case "response":
+            totalCount = parseResponse(parser, rowWriter, cursorExpected);
+            break;
+          case "nextCursorMark":
+            nextCursorMark = parser.getText();
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+      if (totalCount < 0 || (cursorExpected && nextCursorMark == null)) {
+        throw new SiteSearchRuntimeException("SOLR export response did not contain expected response" +
+            (cursorExpected ? " and nextCursorMark properties" : " property"));
+      }
+      return new ExportPage(totalCount, nextCursorMark);
+    }
+  }
+
+  private static int parseResponse(JsonParser parser, ExportRowWriter rowWriter, boolean cursorPage) throws IOException {
+    expect(parser.currentToken(), JsonToken.START_OBJECT);
+    int totalCount = -1;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "numFound":
+          totalCount = parser.getIntValue();
+          break;
+        case "docs":
+          expect(parser.currentToken(), JsonToken.START_ARRAY);
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            parseDocument(parser, rowWriter, cursorPage);
+          }
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return totalCount;
+  }
+
+  // cursor page documents have scores; /export documents do not, and their multi-valued fields are reordered
+  private static void parseDocument(JsonParser parser, ExportRowWriter rowWriter, boolean cursorPage) throws IOException {
+    String primaryKey = null;
+    double score = Double.NaN;
+    String project = "";
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (name.equals(PRIMARY_KEY_FIELD)) {
+        primaryKey = readArrayAsJson(parser, cursorPage ? Integer.MAX_VALUE : 1);
+      }
+      else if (name.equals(SCORE_FIELD)) {
+        // binary floats are widened via their text so scores match those parsed from JSON
+        score = parser.getNumberType() == NumberType.FLOAT
+          ? Double.parseDouble(parser.getText()) : parser.getDoubleValue();
+      }
+      else if (name.equals(PROJECT_FIELD) && token != JsonToken.VALUE_NULL) {
+        project = parser.getText();
+      }
+      else {
+        parser.skipChildren();
+      }
+    }
+    if (primaryKey == null) {
+      throw new SiteSearchRuntimeException("SOLR export document did not contain field '" + PRIMARY_KEY_FIELD + "'");
+    }
+    if (cursorPage && Double.isNaN(score)) {
+      throw new SiteSearchRuntimeException("SOLR export document did not contain field '" + SCORE_FIELD + "'");
+    }
+    rowWriter.writeRow(primaryKey, score, project);
+  }
+
+  // produces the same output as JSONArray.toString() for arrays of scalars
+  private static String readArrayAsJson(JsonParser parser, int maxValues) throws IOException {
+    expect(parser.currentToken(), JsonToken.START_ARRAY);
+    StringBuilder json = new StringBuilder("[");
+    JsonToken token;
+    int numValues = 0;
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      if (++numValues > maxValues) {
+        throw new SiteSearchRuntimeException("SOLR export document contained a multi-valued '" +
+            PRIMARY_KEY_FIELD + "', whose order the /export handler does not preserve");
+      }
+      if (json.length() > 1) json.append(',');
+      json.append(token == JsonToken.VALUE_STRING ? JSONObject.quote(parser.getText()) : parser.getText());
+    }
+    return json.append(']').toString();
+  }
+
+  private static void expect(JsonToken actual, JsonToken expected) {
+    if (actual != expected) {
+      throw new SiteSearchRuntimeException("Unexpected token in SOLR export response: expected " + expected + " but found " + actual);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package org.gusdb.sitesearch.service.solr;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Response body stream which is closed if a single read blocks for longer than
+ * the timeout, so a reader of a stalled SOLR response fails rather than waiting
+ * forever.  Time spent between reads (e.g. while the caller writes what it has
+ * read to a slow client) does not count against the timeout.
+ */
+class ReadTimeoutInputStream extends FilterInputStream {
+
+  private static final Logger LOG = LogManager.getLogger(ReadTimeoutInputStream.class);
+
+  private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "solr-read-watchdog");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Duration _timeout;
+  private final ScheduledFuture<?> _check;
+
+  // start of the read in progress, or 0 if not reading
+  private volatile long _readStart = 0;
+  private volatile boolean _timedOut = false;
+
+  ReadTimeoutInputStream(InputStream in, Duration timeout) {
+    super(in);
+    _timeout = timeout;
+    long periodMillis = Math.max(1, Math.min(1000, timeout.toMillis() / 4));
+    _check = WATCHDOG.scheduleWithFixedDelay(this::check, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void check() {
+    long readStart = _readStart;
+    if (readStart != 0 && System.nanoTime() - readStart > _timeout.toNanos()) {
+      _timedOut = true;
+      _check.cancel(false);
+      try {
+        // unblocks the reader, whose read then fails
+        in.close();
+      }
+      catch (IOException e) {
+        LOG.debug("Unable to close stalled SOLR response", e);
+      }
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    startRead();
+    try {
+      return in.read();
+    }
+    catch (IOException e) {
+      throw timedOutOr(e);
+    }
+    finally {
+      _readStart = 0;
+    }
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    startRead();
+    try {
+      return in.read(b, off, len);
+    }
+    catch (IOException e) {
+      throw timedOutOr(e);
+    }
+    finally {
+      _readStart = 0;
+    }
+  }
+
+  private void startRead() throws IOException {
+    if (_timedOut) throw timedOutOr(null);
+    _readStart = System.nanoTime();
+  }
+
+  private IOException timedOutOr(IOException e) {
+    return _timedOut ? new IOException("No data received from SOLR for " + _timeout.toSeconds() + " seconds", e) : e;
+  }
+
+  @Override
+  public void close() throws IOException {
+    _check.cancel(false);
+    super.close();
+  }
+}
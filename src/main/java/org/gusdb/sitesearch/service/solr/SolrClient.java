@@ -0,0 +1,359 @@
+package org.gusdb.sitesearch.service.solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.fgputil.solr.Solr.HttpMethod;
+import org.gusdb.sitesearch.service.AsyncSemaphore;
+import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
+
+/**
+ * Long-lived client for all HTTP traffic to SOLR.  A single instance is shared
+ * by all requests; the underlying JDK HTTP client keeps connections alive and
+ * reuses them across requests.  Because all traffic goes to a single SOLR host,
+ * the number of concurrent connections is capped by this client.  Requests may
+ * be made synchronously (streaming the response body) or asynchronously, in
+ * which case no thread is held while waiting for a connection or a response.
+ * If enabled, responses are requested gzip-compressed, reducing the bytes sent
+ * over the network for large result pages; they are decompressed as read.
+ * Reads of response bodies are also subject to the read timeout, so a stalled
+ * SOLR response fails rather than holding a thread and connection forever.
+ */
+public class SolrClient {
+
+  private static final Logger LOG = LogManager.getLogger(SolrClient.class);
+
+  private static final String SELECT_PATH = "select";
+  private static final int MAX_ERROR_BODY_CHARS = 1000;
+  private static final String GZIP = "gzip";
+
+  /**
+   * Consumes the body of a successful SOLR response
+   */
+  @FunctionalInterface
+  public interface ResponseHandler<T> {
+    T handle(InputStream body) throws IOException;
+  }
+
+  private final String _solrUrl;
+  private final String _coreUrl;
+  private final Duration _readTimeout;
+  private final long _connectionWaitMillis;
+  private final boolean _requestCompression;
+  private final SolrResponseFormat _responseFormat;
+
+  private final int _maxConnections;
+  private final AsyncSemaphore _connections;
+
+  private final HttpClient _client;
+
+  /**
+   * @param solrUrl base URL of the SOLR instance
+   * @param coreName name of the core to which select (and other core) requests are sent
+   * @param connectTimeoutSecs maximum time to wait to establish a connection
+   * @param readTimeoutSecs maximum time to wait for SOLR to begin responding to a request, or
+   * for more of a streamed response body
+   * @param maxConnections maximum number of concurrent connections to SOLR
+   * @param requestCompression whether to ask SOLR for gzip-compressed responses
+   * @param responseFormat format in which search and export responses are requested
+   */
+  public SolrClient(String solrUrl, String coreName, int connectTimeoutSecs, int readTimeoutSecs,
+      int maxConnections, boolean requestCompression, SolrResponseFormat responseFormat) {
+    _solrUrl = solrUrl.endsWith("/") ? solrUrl : solrUrl + "/";
+    _coreUrl = _solrUrl + coreName + "/";
+    _readTimeout = Duration.ofSeconds(readTimeoutSecs);
+    _connectionWaitMillis = TimeUnit.SECONDS.toMillis(connectTimeoutSecs);
+    _requestCompression = requestCompression;
+    _responseFormat = responseFormat;
+    _maxConnections = maxConnections;
+    _connections = new AsyncSemaphore(maxConnections, Integer.MAX_VALUE);
+    _client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(connectTimeoutSecs))
+      .followRedirects(HttpClient.Redirect.NORMAL)
+      .build();
+  }
+
+  /**
+   * @return URL of the core this client queries
+   */
+  public String getCoreUrl() {
+    return _coreUrl;
+  }
+
+  /**
+   * @return number of connections to SOLR currently in use
+   */
+  public int getConnectionsInUse() {
+    return _maxConnections - _connections.getAvailablePermits();
+  }
+
+  /**
+   * @return number of requests waiting for a connection to SOLR
+   */
+  public int getConnectionWaiterCount() {
+    return _connections.getWaiterCount();
+  }
+
+  /**
+   * @return format in which search and export responses should be requested
+   */
+  public SolrResponseFormat getResponseFormat() {
+    return _responseFormat;
+  }
+
+  /**
+   * Sends a query to the core's select handler and passes the response body to
+   * the handler.  POST requests send the query string as a form body.
+   *
+   * @param method HTTP method to use
+   * @param queryString URL-encoded query string (without leading '?')
+   * @param handler consumer of the response body
+   * @return value produced by the handler
+   */
+  public <T> T executeQuery(HttpMethod method, String queryString, ResponseHandler<T> handler) {
+    return executeQuery(SELECT_PATH, method, queryString, handler);
+  }
+
+  /**
+   * Sends a query to the named request handler of the core (e.g. "export") and
+   * passes the response body to the handler.
+   *
+   * @param requestHandler path of the SOLR request handler, relative to the core URL
+   * @param method HTTP method to use
+   * @param queryString URL-encoded query string (without leading '?')
+   * @param handler consumer of the response body
+   * @return value produced by the handler
+   */
+  public <T> T executeQuery(String requestHandler, HttpMethod method, String queryString, ResponseHandler<T> handler) {
+    return execute(buildQueryRequest(requestHandler, method, queryString), handler);
+  }
+
+  private HttpRequest.Builder buildQueryRequest(String requestHandler, HttpMethod method, String queryString) {
+    return method == HttpMethod.GET
+      ? HttpRequest.newBuilder(URI.create(_coreUrl + requestHandler + "?" + queryString)).GET()
+      : HttpRequest.newBuilder(URI.create(_coreUrl + requestHandler))
+          .header("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
+          .POST(BodyPublishers.ofString(queryString, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Sends a GET request to a path relative to the core URL (e.g. "suggest?suggest.q=abc")
+   */
+  public <T> T executeCoreRequest(String pathAndQuery, ResponseHandler<T> handler) {
+    return execute(HttpRequest.newBuilder(URI.create(_coreUrl + pathAndQuery)).GET(), handler);
+  }
+
+  /**
+   * Sends a GET request to a path relative to the SOLR base URL (e.g. "admin/cores")
+   */
+  public <T> T executeRequest(String pathAndQuery, ResponseHandler<T> handler) {
+    return execute(HttpRequest.newBuilder(URI.create(_solrUrl + pathAndQuery)).GET(), handler);
+  }
+
+  /**
+   * Asynchronously sends a query to the core's select handler.  The response
+   * body is read fully before being passed to the handler, so this should only
+   * be used for responses of modest size.
+   *
+   * @param method HTTP method to use
+   * @param queryString URL-encoded query string (without leading '?')
+   * @param handler consumer of the response body
+   * @return future value produced by the handler
+   */
+  public <T> CompletableFuture<T> executeQueryAsync(HttpMethod method, String queryString, ResponseHandler<T> handler) {
+    return executeQueryAsync(method, queryString, _readTimeout, handler);
+  }
+
+  /**
+   * Asynchronously sends a query to the core's select handler, waiting at most
+   * the passed time for a response.
+   *
+   * @param method HTTP method to use
+   * @param queryString URL-encoded query string (without leading '?')
+   * @param timeout maximum time to wait for SOLR to respond
+   * @param handler consumer of the response body
+   * @return future value produced by the handler
+   */
+  public <T> CompletableFuture<T> executeQueryAsync(HttpMethod method, String queryString, Duration timeout, ResponseHandler<T> handler) {
+    return executeAsync(buildQueryRequest(SELECT_PATH, method, queryString), timeout, handler);
+  }
+
+  /**
+   * Asynchronously sends a GET request to a path relative to the core URL,
+   * waiting at most the passed time for a response
+   */
+  public <T> CompletableFuture<T> executeCoreRequestAsync(String pathAndQuery, Duration timeout, ResponseHandler<T> handler) {
+    return executeAsync(HttpRequest.newBuilder(URI.create(_coreUrl + pathAndQuery)).GET(), timeout, handler);
+  }
+
+  private <T> CompletableFuture<T> executeAsync(HttpRequest.Builder requestBuilder, Duration timeout, ResponseHandler<T> handler) {
+    Duration requestTimeout = timeout.compareTo(_readTimeout) < 0 ? timeout : _readTimeout;
+    HttpRequest request = withEncoding(requestBuilder).timeout(requestTimeout).build();
+    return _connections.acquire(_connectionWaitMillis)
+      .exceptionally(e -> { throw connectionUnavailable(request); })
+      .thenCompose(permit -> {
+        try {
+          // the connection stays busy until the exchange itself finishes (the Java 11
+          // client cannot abort it), so the permit is held until then
+          CompletableFuture<HttpResponse<byte[]>> exchange = _client.sendAsync(request, BodyHandlers.ofByteArray());
+          exchange.whenComplete((response, e) -> _connections.release());
+          // the request timeout covers only the wait for headers; also limit reading the body
+          return exchange.copy().orTimeout(requestTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        catch (RuntimeException e) {
+          _connections.release();
+          throw e;
+        }
+      })
+      .thenApply(response -> {
+        try (InputStream body = decode(response, new ByteArrayInputStream(response.body()))) {
+          if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            throw failedStatus(request, response.statusCode(), readErrorBody(body));
+          }
+          return handler.handle(body);
+        }
+        catch (IOException e) {
+          throw new SiteSearchRuntimeException("Could not read SOLR response: " + e.getMessage(), e);
+        }
+      })
+      .handle((result, e) -> {
+        if (e == null) return result;
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+        if (cause instanceof TimeoutException) {
+          throw new SiteSearchRuntimeException("Timed out after " + requestTimeout.toSeconds() +
+              " seconds reading SOLR response from " + request.uri(), cause);
+        }
+        LOG.error("Failed to communicate with SOLR at " + request.uri(), cause);
+        throw new SiteSearchRuntimeException("Failed to communicate with SOLR: " + cause.getMessage(), cause);
+      });
+  }
+
+  private <T> T execute(HttpRequest.Builder requestBuilder, ResponseHandler<T> handler) {
+    HttpRequest request = withEncoding(requestBuilder).timeout(_readTimeout).build();
+    acquireConnection(request);
+    try {
+      HttpResponse<InputStream> response = awaitResponse(request);
+      try (InputStream body = decode(response, new ReadTimeoutInputStream(response.body(), _readTimeout))) {
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+          throw failedStatus(request, response.statusCode(), readErrorBody(body));
+        }
+        return handler.handle(body);
+      }
+    }
+    catch (IOException e) {
+      if (Thread.currentThread().isInterrupted()) {
+        // caller abandoned the request (e.g. client disconnected); closing the body aborted the response
+        throw new SiteSearchRuntimeException("Interrupted while reading SOLR response", e);
+      }
+      LOG.error("Failed to communicate with SOLR at " + request.uri(), e);
+      throw new SiteSearchRuntimeException("Failed to communicate with SOLR: " + e.getMessage(), e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SiteSearchRuntimeException("Interrupted while waiting for SOLR", e);
+    }
+    finally {
+      _connections.release();
+    }
+  }
+
+  /**
+   * Sends the request and waits for the response headers.  If interrupted
+   * while waiting, the response body is closed as soon as it arrives, so the
+   * connection is not left holding an unread response.
+   */
+  private HttpResponse<InputStream> awaitResponse(HttpRequest request) throws IOException, InterruptedException {
+    CompletableFuture<HttpResponse<InputStream>> pending = _client.sendAsync(request, BodyHandlers.ofInputStream());
+    try {
+      return pending.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+      throw new IOException(e.getCause());
+    }
+    catch (InterruptedException e) {
+      pending.thenAccept(response -> closeQuietly(response.body()));
+      throw e;
+    }
+  }
+
+  private HttpRequest.Builder withEncoding(HttpRequest.Builder requestBuilder) {
+    return _requestCompression ? requestBuilder.header("Accept-Encoding", GZIP) : requestBuilder;
+  }
+
+  /**
+   * @return response body, decompressed if SOLR compressed it
+   */
+  private static InputStream decode(HttpResponse<?> response, InputStream body) throws IOException {
+    boolean gzipped = response.headers().firstValue("Content-Encoding")
+      .map(encoding -> encoding.trim().equalsIgnoreCase(GZIP))
+      .orElse(false);
+    if (!gzipped) return body;
+    try {
+      return new GZIPInputStream(body);
+    }
+    catch (IOException e) {
+      closeQuietly(body);
+      throw e;
+    }
+  }
+
+  private static void closeQuietly(InputStream body) {
+    try {
+      body.close();
+    }
+    catch (IOException e) {
+      LOG.debug("Unable to close abandoned SOLR response", e);
+    }
+  }
+
+  private void acquireConnection(HttpRequest request) {
+    try {
+      _connections.acquireBlocking(_connectionWaitMillis);
+    }
+    catch (TimeoutException e) {
+      throw connectionUnavailable(request);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SiteSearchRuntimeException("Interrupted while waiting for an available SOLR connection", e);
+    }
+  }
+
+  private static SiteSearchRuntimeException connectionUnavailable(HttpRequest request) {
+    return new SiteSearchRuntimeException("Timed out waiting for an available SOLR connection for " + request.uri());
+  }
+
+  private static SiteSearchRuntimeException failedStatus(HttpRequest request, int status, String body) {
+    return new SiteSearchRuntimeException("SOLR request " + request.uri() + " failed with status " +
+        status + ": " + truncate(body));
+  }
+
+  private static String readErrorBody(InputStream body) throws IOException {
+    return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+  }
+
+  private static String truncate(String text) {
+    return text.length() <= MAX_ERROR_BODY_CHARS ? text : text.substring(0, MAX_ERROR_BODY_CHARS) + "...";
+  }
+}
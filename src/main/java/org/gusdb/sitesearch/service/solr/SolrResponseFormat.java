@@ -0,0 +1,48 @@
+package org.gusdb.sitesearch.service.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Wire format in which SOLR returns search and export responses (SOLR's wt
+ * param).  SMILE is a binary encoding of the same structure as JSON, which is
+ * more compact and much cheaper to parse; both are read with the same
+ * streaming parser API.
+ */
+public enum SolrResponseFormat {
+
+  JSON("json", new JsonFactory()),
+  SMILE("smile", new SmileFactory());
+
+  private final String _writerType;
+  private final JsonFactory _parserFactory;
+
+  private SolrResponseFormat(String writerType, JsonFactory parserFactory) {
+    _writerType = writerType;
+    _parserFactory = parserFactory;
+  }
+
+  /**
+   * @return value of SOLR's wt param requesting this format
+   */
+  public String getWriterType() {
+    return _writerType;
+  }
+
+  public JsonParser createParser(InputStream body) throws IOException {
+    return _parserFactory.createParser(body);
+  }
+
+  public static SolrResponseFormat fromWriterType(String writerType) {
+    for (SolrResponseFormat format : values()) {
+      if (format._writerType.equalsIgnoreCase(writerType)) {
+        return format;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported SOLR response format: " + writerType);
+  }
+}
@@ -0,0 +1,232 @@
+package org.gusdb.sitesearch.service.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Parsed response to a SOLR select request (wt=json or wt=smile)
+ *
+ * <pre>
+ * {
+ *   "responseHeader": { "QTime": 12, "partialResults": true },
+ *   "response": { "numFound": 10, "docs": [ { ... } ] },
+ *   "facet_counts": {
+ *     "facet_queries": { "key": 5 },
+ *     "facet_fields": { "field": [ "value1", 3, "value2", 2 ] }
+ *   },
+ *   "highlighting": { "docId": { "field": [ "snippet" ] } },
+ *   "nextCursorMark": "..."
+ * }
+ * </pre>
+ */
+public class SolrSearchResponse {
+
+  private final int _qTime;
+  private final boolean _partialResults;
+  private final int _totalCount;
+  private final List<JSONObject> _documents;
+  private final Map<String,Map<String,Integer>> _facetCounts;
+  private final Map<String,Integer> _facetQueryResults;
+  private final Map<String,JSONObject> _highlighting;
+  private final Optional<String> _nextCursorMark;
+
+  public static SolrSearchResponse parse(InputStream body) throws IOException {
+    try {
+      return new SolrSearchResponse(new JSONObject(new JSONTokener(
+          new InputStreamReader(body, StandardCharsets.UTF_8))));
+    }
+    catch (JSONException e) {
+      throw new SiteSearchRuntimeException("Could not parse JSON response from SOLR: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Parses a SOLR response in the passed format.  JSON responses are parsed
+   * by org.json; other formats are decoded into the same org.json structure,
+   * with values of the same types JSON parsing would produce, so responses
+   * format identically regardless of wire format.  Building that structure
+   * costs about as much as parsing JSON, so a binary format only reduces the
+   * bytes transferred from SOLR, not the CPU spent on a search response.
+   */
+  public static SolrSearchResponse parse(InputStream body, SolrResponseFormat format) throws IOException {
+    if (format == SolrResponseFormat.JSON) {
+      return parse(body);
+    }
+    try (JsonParser parser = format.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new SiteSearchRuntimeException("SOLR " + format.getWriterType() + " response is not an object");
+      }
+      return new SolrSearchResponse(readObject(parser));
+    }
+  }
+
+  private static JSONObject readObject(JsonParser parser) throws IOException {
+    JSONObject obj = new JSONObject();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      obj.put(name, readValue(parser));
+    }
+    return obj;
+  }
+
+  private static Object readValue(JsonParser parser) throws IOException {
+    switch (parser.currentToken()) {
+      case START_OBJECT:
+        return readObject(parser);
+      case START_ARRAY:
+        JSONArray array = new JSONArray();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          array.put(readValue(parser));
+        }
+        return array;
+      case VALUE_STRING:
+        return parser.getText();
+      case VALUE_NUMBER_INT:
+        return parser.getNumberValue();
+      case VALUE_NUMBER_FLOAT:
+        // org.json parses decimals as BigDecimal; the text of a binary float
+        // or double is the shortest decimal form, as SOLR's JSON writer produces
+        return new BigDecimal(parser.getText());
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_NULL:
+        return JSONObject.NULL;
+      default:
+        throw new SiteSearchRuntimeException("Unexpected token in SOLR response: " + parser.currentToken());
+    }
+  }
+
+  public SolrSearchResponse(JSONObject json) {
+    JSONObject header = json.optJSONObject("responseHeader");
+    _qTime = getQTime(json);
+    _partialResults = header != null && header.optBoolean("partialResults", false);
+
+    JSONObject response = json.getJSONObject("response");
+    _totalCount = response.getInt("numFound");
+    JSONArray docs = response.getJSONArray("docs");
+    List<JSONObject> documents = new ArrayList<>(docs.length());
+    for (int i = 0; i < docs.length(); i++) {
+      documents.add(docs.getJSONObject(i));
+    }
+    _documents = Collections.unmodifiableList(documents);
+
+    JSONObject facets = json.optJSONObject("facet_counts");
+    _facetCounts = facets == null ? Collections.emptyMap() : parseFacetFields(facets.optJSONObject("facet_fields"));
+    _facetQueryResults = facets == null ? Collections.emptyMap() : parseFacetQueries(facets.optJSONObject("facet_queries"));
+
+    JSONObject highlighting = json.optJSONObject("highlighting");
+    Map<String,JSONObject> highlightingMap = new HashMap<>();
+    if (highlighting != null) {
+      for (String docId : highlighting.keySet()) {
+        highlightingMap.put(docId, highlighting.getJSONObject(docId));
+      }
+    }
+    _highlighting = Collections.unmodifiableMap(highlightingMap);
+
+    _nextCursorMark = Optional.ofNullable(json.optString("nextCursorMark", null));
+  }
+
+  private static Map<String,Map<String,Integer>> parseFacetFields(JSONObject facetFields) {
+    Map<String,Map<String,Integer>> result = new HashMap<>();
+    if (facetFields == null) return result;
+    for (String field : facetFields.keySet()) {
+      // default json.nl=flat format: [ value1, count1, value2, count2, ... ]
+      JSONArray valueCounts = facetFields.getJSONArray(field);
+      Map<String,Integer> counts = new LinkedHashMap<>();
+      for (int i = 0; i + 1 < valueCounts.length(); i += 2) {
+        counts.put(valueCounts.getString(i), valueCounts.getInt(i + 1));
+      }
+      result.put(field, counts);
+    }
+    return result;
+  }
+
+  private static Map<String,Integer> parseFacetQueries(JSONObject facetQueries) {
+    Map<String,Integer> result = new LinkedHashMap<>();
+    if (facetQueries == null) return result;
+    for (String key : facetQueries.keySet()) {
+      result.put(key, facetQueries.getInt(key));
+    }
+    return result;
+  }
+
+  /**
+   * @param json SOLR response
+   * @return time SOLR reports spending on the request in milliseconds, or -1 if not present
+   */
+  public static int getQTime(JSONObject json) {
+    JSONObject header = json.optJSONObject("responseHeader");
+    return header == null ? -1 : header.optInt("QTime", -1);
+  }
+
+  /**
+   * @return time SOLR reports spending on the request in milliseconds, or -1 if not present
+   */
+  public int getQTime() {
+    return _qTime;
+  }
+
+  /**
+   * @return true if SOLR stopped searching early (e.g. timeAllowed was exceeded),
+   * so counts and documents may be incomplete
+   */
+  public boolean isPartialResults() {
+    return _partialResults;
+  }
+
+  public int getTotalCount() {
+    return _totalCount;
+  }
+
+  public List<JSONObject> getDocuments() {
+    return _documents;
+  }
+
+  /**
+   * @return map from facet field name to map of value to count
+   */
+  public Map<String,Map<String,Integer>> getFacetCounts() {
+    return _facetCounts;
+  }
+
+  /**
+   * @return map from facet query key to count
+   */
+  public Map<String,Integer> getFacetQueryResults() {
+    return _facetQueryResults;
+  }
+
+  /**
+   * @param docId document ID
+   * @return highlighting for the document (map from field name to snippets), or null if none
+   */
+  public JSONObject getHighlighting(String docId) {
+    return _highlighting.get(docId);
+  }
+
+  public Optional<String> getNextCursorMark() {
+    return _nextCursorMark;
+  }
+}
@@ -0,0 +1,98 @@
+package org.gusdb.sitesearch.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.gusdb.sitesearch.service.exception.ServiceBusyException;
+import org.junit.Test;
+
+public class AdmissionLaneTest {
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "admitted");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  @Test
+  public void permitIsHeldUntilOperationCompletes() throws Exception {
+    AdmissionLane lane = new AdmissionLane("test", 1, 1, 5, EXECUTOR);
+    CompletableFuture<String> operation = new CompletableFuture<>();
+    CompletableFuture<String> first = lane.run(() -> operation);
+    CompletableFuture<String> second = lane.run(() -> CompletableFuture.completedFuture("second"));
+    assertEquals(1, lane.getActiveCount());
+    assertEquals(1, lane.getQueuedCount());
+    operation.complete("first");
+    assertEquals("first", first.get());
+    assertEquals("second", second.get(5, TimeUnit.SECONDS));
+    assertEquals(0, lane.getActiveCount());
+  }
+
+  @Test
+  public void queuedRequestTimesOutAsBusy() throws Exception {
+    AdmissionLane lane = new AdmissionLane("test", 1, 1, 0, EXECUTOR);
+    lane.run(CompletableFuture::new);
+    assertBusy(lane.run(() -> CompletableFuture.completedFuture("never")));
+    assertEquals(0, lane.getQueuedCount());
+  }
+
+  @Test
+  public void requestBeyondQueueIsRejectedAsBusy() throws Exception {
+    AdmissionLane lane = new AdmissionLane("test", 1, 0, 5, EXECUTOR);
+    lane.run(CompletableFuture::new);
+    assertBusy(lane.run(() -> CompletableFuture.completedFuture("never")));
+  }
+
+  @Test
+  public void admitReleasesPermitOnlyOnce() throws Exception {
+    AdmissionLane lane = new AdmissionLane("test", 1, 2, 5, EXECUTOR);
+    Runnable release = lane.admit().get();
+    CompletableFuture<Runnable> waiting = lane.admit();
+    CompletableFuture<Runnable> alsoWaiting = lane.admit();
+    assertFalse(waiting.isDone());
+    release.run();
+    release.run();
+    waiting.get(5, TimeUnit.SECONDS);
+    assertEquals(1, lane.getQueuedCount());
+    assertFalse(alsoWaiting.isDone());
+  }
+
+  @Test
+  public void waitingRequestContinuesOnExecutor() throws Exception {
+    AdmissionLane lane = new AdmissionLane("test", 1, 1, 5, EXECUTOR);
+    CompletableFuture<String> operation = new CompletableFuture<>();
+    lane.run(() -> operation);
+    CompletableFuture<String> second = lane.run(() ->
+        CompletableFuture.completedFuture(Thread.currentThread().getName()));
+    operation.complete("first");
+    assertEquals("admitted", second.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void availablePermitRunsOnCallingThread() throws Exception {
+    AdmissionLane lane = new AdmissionLane("test", 1, 1, 5, EXECUTOR);
+    assertEquals(Thread.currentThread().getName(), lane.run(() ->
+        CompletableFuture.completedFuture(Thread.currentThread().getName())).get());
+  }
+
+  private static void assertBusy(CompletableFuture<?> result) throws InterruptedException {
+    try {
+      result.get(5, TimeUnit.SECONDS);
+      throw new AssertionError("request was admitted");
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ServiceBusyException);
+    }
+    catch (TimeoutException e) {
+      throw new AssertionError("request did not complete", e);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.gusdb.sitesearch.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class AsyncSemaphoreTest {
+
+  @Test
+  public void permitsAreGrantedInArrivalOrder() {
+    AsyncSemaphore permits = new AsyncSemaphore(1, 10);
+    assertTrue(permits.acquire(1000).isDone());
+    CompletableFuture<Void> second = permits.acquire(1000);
+    CompletableFuture<Void> third = permits.acquire(1000);
+    assertFalse(second.isDone());
+    permits.release();
+    assertTrue(second.isDone());
+    assertFalse(third.isDone());
+    permits.release();
+    assertTrue(third.isDone());
+    permits.release();
+    assertEquals(1, permits.getAvailablePermits());
+  }
+
+  @Test
+  public void waiterTimesOutAndIsRemoved() throws Exception {
+    AsyncSemaphore permits = new AsyncSemaphore(1, 10);
+    permits.acquire(1000);
+    CompletableFuture<Void> waiter = permits.acquire(50);
+    assertEquals(TimeoutException.class, causeOf(waiter));
+    assertEquals(0, permits.getWaiterCount());
+    // the released permit is not handed to the timed out waiter
+    permits.release();
+    assertEquals(1, permits.getAvailablePermits());
+  }
+
+  @Test
+  public void waitersBeyondLimitAreRejected() throws Exception {
+    AsyncSemaphore permits = new AsyncSemaphore(1, 1);
+    permits.acquire(1000);
+    permits.acquire(1000);
+    assertEquals(RejectedExecutionException.class, causeOf(permits.acquire(1000)));
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void blockingAcquireTimesOut() throws Exception {
+    AsyncSemaphore permits = new AsyncSemaphore(0, 10);
+    permits.acquireBlocking(50);
+  }
+
+  private static Class<?> causeOf(CompletableFuture<?> future) throws InterruptedException {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      throw new AssertionError("future completed normally");
+    }
+    catch (ExecutionException e) {
+      return e.getCause().getClass();
+    }
+    catch (TimeoutException e) {
+      throw new AssertionError("future did not complete", e);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package org.gusdb.sitesearch.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.gusdb.sitesearch.service.exception.RequestCancelledException;
+import org.junit.Test;
+
+public class DeadlineTest {
+
+  @Test
+  public void cancellationFailsBoundOperationsOnly() throws Exception {
+    Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+    CompletableFuture<String> operation = new CompletableFuture<>();
+    CompletableFuture<String> bound = deadline.bind(operation);
+    deadline.cancel();
+    assertTrue(bound.isCompletedExceptionally());
+    assertFalse(operation.isDone());
+    try {
+      bound.get();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RequestCancelledException);
+    }
+  }
+
+  @Test(expected = RequestCancelledException.class)
+  public void cancelledDeadlineStartsNoCalls() {
+    Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+    deadline.cancel();
+    deadline.checkRemaining("search");
+  }
+
+  @Test
+  public void boundOperationCompletesNormally() throws Exception {
+    Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+    assertEquals("done", deadline.bind(CompletableFuture.completedFuture("done")).get());
+  }
+}
@@ -0,0 +1,63 @@
+package org.gusdb.sitesearch.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
+import org.gusdb.sitesearch.service.solr.SolrResponseFormat;
+import org.junit.Test;
+
+/**
+ * Checks that exports streamed from SOLR's /export handler are written the same
+ * as those paged with a cursor
+ */
+public class ExportOutputTest {
+
+  // wildcard search results all have score 1.0
+  private static final String CURSOR_PAGE =
+      "{\"responseHeader\":{\"status\":0,\"QTime\":1}," +
+      "\"response\":{\"numFound\":3,\"start\":0,\"docs\":[" +
+        "{\"primaryKey\":[\"PF3D7_0100100\"],\"score\":1.0,\"project\":\"PlasmoDB\"}," +
+        "{\"primaryKey\":[\"TGME49_200010\"],\"score\":1.0,\"project\":\"ToxoDB\"}," +
+        "{\"primaryKey\":[\"FGRAMPH1_01G00001\"],\"score\":1.0}]}," +
+      "\"nextCursorMark\":\"AoE\"}";
+
+  // same documents as returned by /export: no scores, docValues fields only
+  private static final String EXPORT_RESPONSE =
+      "{\"responseHeader\":{\"status\":0},\"response\":{\"numFound\":3,\"docs\":[" +
+        "{\"primaryKey\":[\"PF3D7_0100100\"],\"project\":\"PlasmoDB\"}," +
+        "{\"primaryKey\":[\"TGME49_200010\"],\"project\":\"ToxoDB\"}," +
+        "{\"primaryKey\":[\"FGRAMPH1_01G00001\"]}]}}";
+
+  @Test
+  public void exportHandlerOutputMatchesCursorOutput() throws IOException {
+    StringWriter cursorOutput = new StringWriter();
+    SolrCalls.writeExportPage(toStream(CURSOR_PAGE), SolrResponseFormat.JSON, cursorOutput);
+    StringWriter exportOutput = new StringWriter();
+    SolrCalls.writeExportHandlerResponse(toStream(EXPORT_RESPONSE), exportOutput);
+    assertEquals(cursorOutput.toString(), exportOutput.toString());
+  }
+
+  @Test(expected = SiteSearchRuntimeException.class)
+  public void exportHandlerRejectsMultiValuedPrimaryKey() throws IOException {
+    SolrCalls.writeExportHandlerResponse(toStream(
+        "{\"response\":{\"numFound\":1,\"docs\":[{\"primaryKey\":[\"MetaCyc\",\"ec98568\"]}]}}"),
+        new StringWriter());
+  }
+
+  @Test(expected = SiteSearchRuntimeException.class)
+  public void cursorPageRejectsMissingScore() throws IOException {
+    SolrCalls.writeExportPage(toStream(
+        "{\"response\":{\"numFound\":1,\"docs\":[{\"primaryKey\":[\"PF3D7_0100100\"]}]},\"nextCursorMark\":\"AoE\"}"),
+        SolrResponseFormat.JSON, new StringWriter());
+  }
+
+  private static InputStream toStream(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+}
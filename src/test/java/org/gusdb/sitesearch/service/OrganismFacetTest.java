@@ -0,0 +1,113 @@
+package org.gusdb.sitesearch.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.request.SearchRequest;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Checks that organism facet counts from the single tagged search match those
+ * of the original separate searches: the metadata organisms were applied if
+ * the search organisms narrowed them, and only the search organisms otherwise.
+ * SOLR's filtering is simulated over a small set of documents by evaluating
+ * the organism filters of the generated request.
+ */
+public class OrganismFacetTest {
+
+  private static final Pattern TAG = Pattern.compile("^\\{!tag=([^}]+)\\}");
+  private static final Pattern EXCLUDE = Pattern.compile("^\\{!ex=([^}]+)\\}");
+  private static final Pattern QUOTED = Pattern.compile("\"([^\"]+)\"");
+
+  // organism of each document in the simulated index
+  private static final List<String> DOC_ORGANISMS = List.of(
+      "A", "A", "A", "A", "A", "B", "B", "B", "C", "C", "D");
+
+  private final Metadata _metadata = TestMetadata.load();
+
+  @Test
+  public void searchOrganismsOnly() {
+    assertFacets(request(null, List.of("A", "B")), Map.of("A", 5, "B", 3));
+  }
+
+  @Test
+  public void metadataOrganismsOnly() {
+    // no search organisms means no organism filter (as in the original separate searches)
+    assertFacets(request(List.of("A", "B", "C"), null), Map.of("A", 5, "B", 3, "C", 2, "D", 1));
+  }
+
+  @Test
+  public void sameMetadataAndSearchOrganisms() {
+    assertFacets(request(List.of("B", "A"), List.of("A", "B")), Map.of("A", 5, "B", 3));
+  }
+
+  @Test
+  public void searchOrganismsSubset() {
+    assertFacets(request(List.of("A", "B", "C"), List.of("A")), Map.of("A", 5, "B", 3, "C", 2));
+  }
+
+  @Test
+  public void noOrganisms() {
+    assertFacets(request(null, null), Map.of("A", 5, "B", 3, "C", 2, "D", 1));
+  }
+
+  private SearchRequest request(List<String> metadataOrgs, List<String> searchOrgs) {
+    JSONObject json = new JSONObject()
+      .put("searchText", "kinase")
+      .put("pagination", new JSONObject().put("offset", 0).put("numRecords", 20));
+    if (metadataOrgs != null) json.put("restrictMetadataToOrganisms", metadataOrgs);
+    if (searchOrgs != null) json.put("restrictSearchToOrganisms", searchOrgs);
+    SearchRequest request = new SearchRequest(json, true, false, false);
+    _metadata.validateRequest(request);
+    return request;
+  }
+
+  private void assertFacets(SearchRequest request, Map<String,Integer> expected) {
+    List<String> filters = new ArrayList<>();
+    String organismFacet = null;
+    for (String param : SolrCalls.buildSearchRequest(request, _metadata, false, false).split("&")) {
+      String[] pair = param.split("=", 2);
+      String value = URLDecoder.decode(pair[1], StandardCharsets.UTF_8);
+      if (pair[0].equals("fq") && value.contains(SolrCalls.ORGANISM_FIELD)) {
+        filters.add(value);
+      }
+      else if (pair[0].equals("facet.field") && value.endsWith(SolrCalls.ORGANISM_FIELD)) {
+        organismFacet = value;
+      }
+    }
+
+    // filters whose tags are excluded by the organism facet do not apply to its counts
+    Set<String> excludedTags = new HashSet<>();
+    Matcher exclude = EXCLUDE.matcher(organismFacet);
+    if (exclude.find()) excludedTags.add(exclude.group(1));
+    List<Set<String>> appliedFilters = new ArrayList<>();
+    for (String filter : filters) {
+      Matcher tag = TAG.matcher(filter);
+      if (tag.find() && excludedTags.contains(tag.group(1))) continue;
+      Set<String> allowed = new HashSet<>();
+      Matcher quoted = QUOTED.matcher(filter);
+      while (quoted.find()) allowed.add(quoted.group(1));
+      appliedFilters.add(allowed);
+    }
+
+    Map<String,Integer> counts = new TreeMap<>();
+    for (String organism : DOC_ORGANISMS) {
+      if (appliedFilters.stream().allMatch(allowed -> allowed.contains(organism))) {
+        counts.merge(organism, 1, Integer::sum);
+      }
+    }
+    assertEquals(new TreeMap<>(expected), counts);
+  }
+}
@@ -0,0 +1,49 @@
+package org.gusdb.sitesearch.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Optional;
+
+import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.junit.Test;
+
+public class SearchResponseCacheTest {
+
+  private static final Metadata V1 = TestMetadata.load("v1", 1);
+  private static final Metadata V1_RELOADED = TestMetadata.load("v1", 2);
+  private static final Metadata V2 = TestMetadata.load("v2", 3);
+
+  private static SearchResponseCache newCache() {
+    return new SearchResponseCache(10, 1000, 60);
+  }
+
+  @Test
+  public void reloadWithSameVersionKeepsEntries() {
+    SearchResponseCache cache = newCache();
+    cache.put(V1, "a", "response");
+    assertEquals(Optional.of("response"), cache.get(V1_RELOADED, "a"));
+    assertEquals(Optional.of("response"), cache.get(V1, "a"));
+  }
+
+  @Test
+  public void newerVersionClearsEntries() {
+    SearchResponseCache cache = newCache();
+    cache.put(V1, "a", "response");
+    assertFalse(cache.get(V2, "a").isPresent());
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void olderVersionNeitherReadsNorResets() {
+    SearchResponseCache cache = newCache();
+    cache.put(V2, "a", "new response");
+    assertFalse(cache.get(V1, "a").isPresent());
+    cache.put(V1, "a", "old response");
+    cache.put(V1, "b", "old response");
+    assertEquals(1, cache.getSize());
+    assertEquals(Optional.of("new response"), cache.get(V2, "a"));
+    assertTrue(cache.getMissCount() > 0);
+  }
+}
@@ -0,0 +1,70 @@
+package org.gusdb.sitesearch.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  @Test
+  public void concurrentCallersShareOneOperation() throws Exception {
+    SingleFlight<String> flights = new SingleFlight<>();
+    AtomicInteger calls = new AtomicInteger();
+    CompletableFuture<String> operation = new CompletableFuture<>();
+    CompletableFuture<String> first = flights.execute("key", () -> { calls.incrementAndGet(); return operation; });
+    CompletableFuture<String> second = flights.execute("key", () -> { calls.incrementAndGet(); return operation; });
+    assertEquals(1, calls.get());
+    operation.complete("result");
+    assertEquals("result", first.get());
+    assertEquals("result", second.get());
+  }
+
+  @Test
+  public void completedOperationIsNotRetained() throws Exception {
+    SingleFlight<String> flights = new SingleFlight<>();
+    assertEquals("one", flights.execute("key", () -> CompletableFuture.completedFuture("one")).get());
+    assertEquals("two", flights.execute("key", () -> CompletableFuture.completedFuture("two")).get());
+  }
+
+  @Test
+  public void differentKeysDoNotShare() throws Exception {
+    SingleFlight<String> flights = new SingleFlight<>();
+    CompletableFuture<String> pending = flights.execute("a", CompletableFuture::new);
+    assertEquals("b", flights.execute("b", () -> CompletableFuture.completedFuture("b")).get());
+    assertFalse(pending.isDone());
+  }
+
+  @Test
+  public void failureIsSharedAndThrownOperationIsContained() {
+    SingleFlight<String> flights = new SingleFlight<>();
+    CompletableFuture<String> thrown = flights.execute("key", () -> { throw new IllegalStateException("boom"); });
+    assertTrue(thrown.isCompletedExceptionally());
+    try {
+      thrown.get();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Test
+  public void cancellingOneCallerDoesNotAffectOthers() throws Exception {
+    SingleFlight<String> flights = new SingleFlight<>();
+    CompletableFuture<String> operation = new CompletableFuture<>();
+    CompletableFuture<String> first = flights.execute("key", () -> operation);
+    CompletableFuture<String> second = flights.execute("key", () -> operation);
+    first.cancel(true);
+    operation.complete("result");
+    assertFalse(operation.isCancelled());
+    assertEquals("result", second.get());
+  }
+}
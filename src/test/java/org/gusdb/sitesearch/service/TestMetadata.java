@@ -0,0 +1,31 @@
+package org.gusdb.sitesearch.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.solr.SolrSearchResponse;
+
+/**
+ * Loads metadata from SOLR metadata responses in the test resources
+ */
+public class TestMetadata {
+
+  public static Metadata load() {
+    return new Metadata(parse("categories-metadata.json"), parse("fields-metadata.json"));
+  }
+
+  public static Metadata load(String version, long loadSequence) {
+    return new Metadata(parse("categories-metadata.json"), parse("fields-metadata.json"), version, loadSequence);
+  }
+
+  private static SolrSearchResponse parse(String name) {
+    try (InputStream in = TestMetadata.class.getResourceAsStream("/metadata/" + name)) {
+      return SolrSearchResponse.parse(in);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
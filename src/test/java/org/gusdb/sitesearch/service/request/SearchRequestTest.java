@@ -0,0 +1,57 @@
+package org.gusdb.sitesearch.service.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Optional;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class SearchRequestTest {
+
+  private static SearchRequest parse(String json) {
+    return new SearchRequest(new JSONObject(json), true, false, false);
+  }
+
+  private static final String REQUEST =
+      "{\"searchText\":\"kinase\",\"pagination\":{\"offset\":0,\"numRecords\":20}," +
+      "\"restrictMetadataToOrganisms\":[\"A\",\"B\",\"C\"],\"restrictSearchToOrganisms\":[\"A\",\"B\"]," +
+      "\"documentTypeFilter\":{\"documentType\":\"gene\",\"foundOnlyInFields\":[\"f1\",\"f2\"]}}";
+
+  @Test
+  public void cacheKeyIgnoresListOrder() {
+    SearchRequest reordered = parse(
+        "{\"searchText\":\"kinase\",\"pagination\":{\"offset\":0,\"numRecords\":20}," +
+        "\"restrictMetadataToOrganisms\":[\"C\",\"A\",\"B\"],\"restrictSearchToOrganisms\":[\"B\",\"A\"]," +
+        "\"documentTypeFilter\":{\"documentType\":\"gene\",\"foundOnlyInFields\":[\"f2\",\"f1\"]}}");
+    assertEquals(parse(REQUEST).getCacheKey(), reordered.getCacheKey());
+  }
+
+  @Test
+  public void cacheKeyDistinguishesRequests() {
+    String key = parse(REQUEST).getCacheKey();
+    assertNotEquals(key, parse(REQUEST.replace("\"offset\":0", "\"offset\":20")).getCacheKey());
+    assertNotEquals(key, parse(REQUEST.replace("kinase", "kinases")).getCacheKey());
+    assertNotEquals(key, parse(REQUEST.replace("\"restrictSearchToOrganisms\":[\"A\",\"B\"]",
+        "\"restrictSearchToOrganisms\":[\"A\"]")).getCacheKey());
+    assertNotEquals(key, parse(REQUEST.replace(",\"foundOnlyInFields\":[\"f1\",\"f2\"]", "")).getCacheKey());
+    assertNotEquals(key, parse(REQUEST.replace("}}", "},\"highlight\":\"none\"}")).getCacheKey());
+  }
+
+  @Test
+  public void cacheKeyTreatsEmptyListsAsAbsent() {
+    SearchRequest noOrgs = parse("{\"searchText\":\"kinase\",\"pagination\":{\"offset\":0,\"numRecords\":20}}");
+    SearchRequest emptyOrgs = parse("{\"searchText\":\"kinase\",\"pagination\":{\"offset\":0,\"numRecords\":20}," +
+        "\"restrictMetadataToOrganisms\":[],\"restrictSearchToOrganisms\":[]}");
+    assertEquals(noOrgs.getCacheKey(), emptyOrgs.getCacheKey());
+  }
+
+  @Test
+  public void getAndPostRequestsShareKeys() {
+    SearchRequest get = new SearchRequest("kinase", 0, 20, Optional.of("gene"), Optional.of("PlasmoDB"), HighlightMode.SNIPPETS);
+    SearchRequest post = parse("{\"searchText\":\"kinase\",\"pagination\":{\"offset\":0,\"numRecords\":20}," +
+        "\"restrictToProject\":\"PlasmoDB\",\"documentTypeFilter\":{\"documentType\":\"gene\"}}");
+    assertEquals(get.getCacheKey(), post.getCacheKey());
+  }
+}
@@ -0,0 +1,36 @@
+package org.gusdb.sitesearch.service.server;
+
+import static org.gusdb.sitesearch.service.server.ResponseCompressionFilter.acceptsGzip;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ResponseCompressionFilterTest {
+
+  @Test
+  public void acceptsListedGzip() {
+    assertTrue(acceptsGzip("gzip"));
+    assertTrue(acceptsGzip("deflate, GZIP"));
+    assertTrue(acceptsGzip("br;q=1.0, gzip;q=0.5"));
+    assertTrue(acceptsGzip("x-gzip"));
+  }
+
+  @Test
+  public void rejectsMissingOrRefusedGzip() {
+    assertFalse(acceptsGzip(null));
+    assertFalse(acceptsGzip(""));
+    assertFalse(acceptsGzip("deflate, br"));
+    assertFalse(acceptsGzip("gzip;q=0"));
+    assertFalse(acceptsGzip("gzip; q=0.0"));
+    assertFalse(acceptsGzip("gzip;q=invalid"));
+  }
+
+  @Test
+  public void explicitGzipTakesPrecedenceOverWildcard() {
+    assertTrue(acceptsGzip("*"));
+    assertTrue(acceptsGzip("*;q=0, gzip"));
+    assertFalse(acceptsGzip("*, gzip;q=0"));
+    assertFalse(acceptsGzip("*;q=0"));
+  }
+}
@@ -0,0 +1,110 @@
+package org.gusdb.sitesearch.service.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gusdb.sitesearch.service.exception.SiteSearchRuntimeException;
+import org.gusdb.sitesearch.service.solr.ExportPageParser.ExportPage;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+public class ExportPageParserTest {
+
+  private static final String PAGE =
+      "{\"responseHeader\":{\"status\":0,\"QTime\":3,\"params\":{\"q\":\"*\"}}," +
+      "\"response\":{\"numFound\":42,\"start\":0,\"docs\":[" +
+        "{\"primaryKey\":[\"PF3D7_0100100\",\"PlasmoDB\"],\"score\":12.5,\"project\":\"PlasmoDB\",\"extra\":{\"a\":[1,2]}}," +
+        "{\"project\":null,\"score\":3,\"primaryKey\":[\"with \\\"quotes\\\"\",7]}]}," +
+      "\"nextCursorMark\":\"AoEpUEYzRDdfMDEwMDEwMA==\"}";
+
+  private static List<String> parse(String json, SolrResponseFormat format, ExportPage[] page) throws IOException {
+    return parse(json.getBytes(StandardCharsets.UTF_8), format, page);
+  }
+
+  private static List<String> parse(byte[] body, SolrResponseFormat format, ExportPage[] page) throws IOException {
+    List<String> rows = new ArrayList<>();
+    page[0] = ExportPageParser.parse(new ByteArrayInputStream(body), format, (primaryKey, score, project) ->
+      rows.add(primaryKey + "|" + score + "|" + project));
+    return rows;
+  }
+
+  @Test
+  public void parsesRowsAndPageSummary() throws IOException {
+    ExportPage[] page = new ExportPage[1];
+    List<String> rows = parse(PAGE, SolrResponseFormat.JSON, page);
+    assertEquals(List.of(
+        "[\"PF3D7_0100100\",\"PlasmoDB\"]|12.5|PlasmoDB",
+        "[\"with \\\"quotes\\\"\",7]|3.0|"), rows);
+    assertEquals(42, page[0].getTotalCount());
+    assertEquals("AoEpUEYzRDdfMDEwMDEwMA==", page[0].getNextCursorMark());
+  }
+
+  @Test
+  public void primaryKeyMatchesJSONArrayFormatting() throws IOException {
+    ExportPage[] page = new ExportPage[1];
+    String row = parse(PAGE, SolrResponseFormat.JSON, page).get(1);
+    assertEquals(new JSONArray("[\"with \\\"quotes\\\"\",7]").toString(), row.substring(0, row.indexOf('|')));
+  }
+
+  @Test
+  public void smileRowsMatchJsonRows() throws IOException {
+    // SOLR writes scores as binary floats in smile; copy the JSON page token by token with float scores
+    ByteArrayOutputStream smile = new ByteArrayOutputStream();
+    try (JsonParser json = new JsonFactory().createParser(PAGE);
+         JsonGenerator gen = new SmileFactory().createGenerator(smile)) {
+      while (json.nextToken() != null) {
+        if (json.currentToken().isNumeric() && "score".equals(json.getCurrentName())) {
+          gen.writeNumber(json.getFloatValue());
+        }
+        else {
+          gen.copyCurrentEvent(json);
+        }
+      }
+    }
+    ExportPage[] jsonPage = new ExportPage[1];
+    ExportPage[] smilePage = new ExportPage[1];
+    assertEquals(parse(PAGE, SolrResponseFormat.JSON, jsonPage),
+        parse(smile.toByteArray(), SolrResponseFormat.SMILE, smilePage));
+    assertEquals(jsonPage[0].getNextCursorMark(), smilePage[0].getNextCursorMark());
+  }
+
+  @Test
+  public void parsesExportHandlerResponse() throws IOException {
+    List<Double> scores = new ArrayList<>();
+    ExportPage page = ExportPageParser.parseAll(toStream(
+        "{\"responseHeader\":{\"status\":0},\"response\":{\"numFound\":1,\"docs\":[{\"primaryKey\":[\"a\"]}]}}"),
+        (primaryKey, score, project) -> scores.add(score));
+    assertEquals(1, page.getTotalCount());
+    assertNull(page.getNextCursorMark());
+    assertEquals(1, scores.size());
+    assertEquals(Double.NaN, scores.get(0), 0);
+  }
+
+  @Test(expected = SiteSearchRuntimeException.class)
+  public void missingCursorMarkIsRejected() throws IOException {
+    parse("{\"response\":{\"numFound\":0,\"docs\":[]}}", SolrResponseFormat.JSON, new ExportPage[1]);
+  }
+
+  @Test(expected = SiteSearchRuntimeException.class)
+  public void missingPrimaryKeyIsRejected() throws IOException {
+    parse("{\"response\":{\"numFound\":1,\"docs\":[{\"score\":1.0}]},\"nextCursorMark\":\"x\"}",
+        SolrResponseFormat.JSON, new ExportPage[1]);
+  }
+
+  private static InputStream toStream(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+}
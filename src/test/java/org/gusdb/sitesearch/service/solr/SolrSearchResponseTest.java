@@ -0,0 +1,93 @@
+package org.gusdb.sitesearch.service.solr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import org.gusdb.sitesearch.service.JsonOutput;
+import org.gusdb.sitesearch.service.ResultsFormatter;
+import org.gusdb.sitesearch.service.TestMetadata;
+import org.gusdb.sitesearch.service.metadata.FacetCounts;
+import org.gusdb.sitesearch.service.metadata.Metadata;
+import org.gusdb.sitesearch.service.request.HighlightMode;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+public class SolrSearchResponseTest {
+
+  private static final String SEARCH =
+      "{\"responseHeader\":{\"status\":0,\"QTime\":37}," +
+      "\"response\":{\"numFound\":2817,\"start\":0,\"maxScore\":37.90625,\"docs\":[" +
+        "{\"id\":\"gene__PF3D7_0981739\",\"document-type\":\"gene\",\"primaryKey\":[\"PF3D7_0981739\",\"PlasmoDB\"]," +
+          "\"project\":\"PlasmoDB\",\"organismsForFilter\":[\"Plasmodium falciparum 3D7\"],\"score\":37.90625," +
+          "\"wdkPrimaryKeyString\":\"PF3D7_0981739\",\"hyperlinkName\":\"PF3D7_0981739\"," +
+          "\"TEXT__gene_product\":\"surface \\\"heat\\\" dehydrogenase\",\"TEXT__gene_name\":\"pf3d7_0981739\"," +
+          "\"MULTITEXT__gene_Alias\":[\"PFL_0981739\",\"microneme\"],\"MULTITEXT__gene_GOTerms\":[\"merozoite <b>oxidase</b>\"]," +
+          "\"MULTITEXT__gene_UserComments\":[]}," +
+        "{\"id\":\"gene__PF3D7_0706890\",\"document-type\":\"gene\",\"primaryKey\":[\"PF3D7_0706890\",\"PlasmoDB\"]," +
+          "\"project\":\"PlasmoDB\",\"score\":0.875,\"TEXT__gene_product\":\"conserved subunit\"}]}," +
+      "\"facet_counts\":{\"facet_queries\":{}," +
+        "\"facet_fields\":{\"document-type\":[\"gene\",2817,\"dataset\",0]," +
+        "\"organismsForFilter\":[\"Plasmodium falciparum 3D7\",2000,\"Plasmodium vivax P01\",817]}}," +
+      "\"highlighting\":{" +
+        "\"gene__PF3D7_0981739\":{\"TEXT__gene_product\":[\"surface <em>heat</em>\"],\"MULTITEXT__gene_Alias\":[]}," +
+        "\"gene__PF3D7_0706890\":{}}}";
+
+  private final Metadata _metadata = TestMetadata.load();
+
+  private String format(byte[] body, SolrResponseFormat responseFormat, HighlightMode highlightMode) throws IOException {
+    SolrSearchResponse response = SolrSearchResponse.parse(new ByteArrayInputStream(body), responseFormat);
+    FacetCounts facets = new FacetCounts();
+    facets.setDocTypeFacetCounts(response.getFacetCounts());
+    return JsonOutput.toJsonString(false, gen -> ResultsFormatter.writeResults(gen, _metadata, facets,
+        response, Optional.empty(), highlightMode, Optional.empty()));
+  }
+
+  private static byte[] toSmile(String json) throws IOException {
+    // SOLR writes scores as binary floats in smile; copy the JSON token by token with float decimals
+    // (the fixture's decimals are exact floats, so SOLR's JSON writer would print them as they appear)
+    ByteArrayOutputStream smile = new ByteArrayOutputStream();
+    try (JsonParser parser = new JsonFactory().createParser(json);
+         JsonGenerator gen = new SmileFactory().createGenerator(smile)) {
+      while (parser.nextToken() != null) {
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_FLOAT) {
+          gen.writeNumber(parser.getFloatValue());
+        }
+        else {
+          gen.copyCurrentEvent(parser);
+        }
+      }
+    }
+    return smile.toByteArray();
+  }
+
+  @Test
+  public void smileResultsMatchJsonResults() throws IOException {
+    byte[] json = SEARCH.getBytes(StandardCharsets.UTF_8);
+    byte[] smile = toSmile(SEARCH);
+    for (HighlightMode highlightMode : HighlightMode.values()) {
+      assertEquals(format(json, SolrResponseFormat.JSON, highlightMode),
+          format(smile, SolrResponseFormat.SMILE, highlightMode));
+    }
+  }
+
+  @Test
+  public void smileResponseSummaryMatchesJson() throws IOException {
+    SolrSearchResponse json = SolrSearchResponse.parse(
+        new ByteArrayInputStream(SEARCH.getBytes(StandardCharsets.UTF_8)), SolrResponseFormat.JSON);
+    SolrSearchResponse smile = SolrSearchResponse.parse(
+        new ByteArrayInputStream(toSmile(SEARCH)), SolrResponseFormat.SMILE);
+    assertEquals(json.getTotalCount(), smile.getTotalCount());
+    assertEquals(json.getFacetCounts(), smile.getFacetCounts());
+    assertEquals(json.getNextCursorMark(), smile.getNextCursorMark());
+  }
+}